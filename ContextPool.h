@@ -0,0 +1,265 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+#ifndef __CONTEXT_POOL_H__
+#define __CONTEXT_POOL_H__
+
+#include <jni.h>
+#include <pthread.h>
+#include <stdlib.h>
+#include <new>
+
+/** Number of blocks carved out of each slab. */
+#define CONTEXT_POOL_SLAB_BLOCKS 256
+/** Once a thread has this many free blocks cached, half of them go back to the shared list. */
+#define CONTEXT_POOL_THREAD_CACHE_MAX 64
+/** How many blocks a thread takes from the shared list at a time. */
+#define CONTEXT_POOL_BATCH 32
+
+/** Indexes into the array filled by ContextPool::getStats. */
+enum ContextPoolStat {
+	POOL_STAT_ACQUIRED = 0,
+	POOL_STAT_RELEASED,
+	POOL_STAT_THREAD_HITS,
+	POOL_STAT_SHARED_HITS,
+	POOL_STAT_SLABS,
+	POOL_STAT_BLOCKS,
+	POOL_STAT_BLOCK_SIZE,
+	POOL_STAT_COUNT
+};
+
+/**
+ * A slab allocator for fixed size blocks of T, which keeps malloc's arena locks off the create and release paths.
+ *
+ * Freed blocks go onto a free list owned by the freeing thread, and spill over to a shared list in batches when
+ * that gets too long.  A thread that runs dry takes a batch from the shared list, and only when that is empty too is
+ * a new slab malloc'd.
+ *
+ * The counters are per thread too, each thread only stores to its own, and getStats adds them up under the shared
+ * lock, so the fast path never writes a cache line another thread does.
+ *
+ * Slabs are never given back, so a stale pointer to a freed block always points at mapped memory.  The free list link
+ * is kept after T, so the DEAD_HEADER/DEAD_FOOTER written by LeakContext::release stay intact while the block is free.
+ *
+ * Everything is static, so there is one pool per T.
+ */
+template<typename T>
+class ContextPool {
+private:
+	struct Block {
+		T value;
+		Block *next;
+	};
+
+	struct ThreadCache {
+		Block *head;
+		size_t count;
+		jlong stats[POOL_STAT_COUNT];
+		/** the list of live caches for getStats, under sharedLock. */
+		ThreadCache *prev;
+		ThreadCache *next;
+
+		ThreadCache() :
+				head(NULL), count(0), prev(NULL), next(NULL) {
+			for (int i = 0; i < POOL_STAT_COUNT; i++) {
+				stats[i] = 0;
+			}
+
+			pthread_mutex_lock(&sharedLock);
+			next = liveCaches;
+			if (NULL != next) {
+				next->prev = this;
+			}
+			liveCaches = this;
+			pthread_mutex_unlock(&sharedLock);
+		}
+
+		/** Hand anything left back to the shared list when the thread exits, or it would be lost. */
+		~ThreadCache() {
+			if (NULL != head) {
+				pushShared(head, count);
+				head = NULL;
+				count = 0;
+			}
+
+			pthread_mutex_lock(&sharedLock);
+			for (int i = 0; i < POOL_STAT_COUNT; i++) {
+				exitedStats[i] += stats[i];
+			}
+
+			if (NULL != prev) {
+				prev->next = next;
+			} else {
+				liveCaches = next;
+			}
+			if (NULL != next) {
+				next->prev = prev;
+			}
+			pthread_mutex_unlock(&sharedLock);
+		}
+
+		/** only this thread stores to stats, so a plain add and a relaxed store are enough. */
+		inline void add(ContextPoolStat stat, jlong amount) {
+			__atomic_store_n(&stats[stat], stats[stat] + amount,
+					__ATOMIC_RELAXED);
+		}
+	};
+
+	static thread_local ThreadCache cache;
+
+	static pthread_mutex_t sharedLock;
+	static Block *sharedHead;
+	static size_t sharedCount;
+
+	static ThreadCache *liveCaches;
+	/** counters from threads that have exited, under sharedLock. */
+	static jlong exitedStats[POOL_STAT_COUNT];
+
+	/** push a chain of blocks ending in NULL onto the shared list. */
+	static void pushShared(Block *first, size_t blocks) {
+		Block *last = first;
+		while (NULL != last->next) {
+			last = last->next;
+		}
+
+		pthread_mutex_lock(&sharedLock);
+		last->next = sharedHead;
+		sharedHead = first;
+		sharedCount += blocks;
+		pthread_mutex_unlock(&sharedLock);
+	}
+
+	/** take up to a batch from the shared list, malloc'ing a new slab if it's empty. */
+	static bool refill(ThreadCache &tc) {
+		pthread_mutex_lock(&sharedLock);
+		if (NULL != sharedHead) {
+			size_t taken = 0;
+			Block *first = sharedHead;
+			Block *last = first;
+			while (taken + 1 < CONTEXT_POOL_BATCH && NULL != last->next) {
+				last = last->next;
+				taken++;
+			}
+			taken++;
+
+			sharedHead = last->next;
+			sharedCount -= taken;
+			pthread_mutex_unlock(&sharedLock);
+
+			last->next = tc.head;
+			tc.head = first;
+			tc.count += taken;
+			tc.add(POOL_STAT_SHARED_HITS, 1);
+			return true;
+		}
+		pthread_mutex_unlock(&sharedLock);
+
+		Block *slab = (Block *) calloc(CONTEXT_POOL_SLAB_BLOCKS, sizeof(Block));
+		if (NULL == slab) {
+			return false;
+		}
+
+		// keep a batch, and let other threads have the rest of the slab.
+		for (size_t i = 0; i < CONTEXT_POOL_BATCH; i++) {
+			slab[i].next = tc.head;
+			tc.head = &slab[i];
+		}
+		tc.count += CONTEXT_POOL_BATCH;
+
+		for (size_t i = CONTEXT_POOL_BATCH; i < CONTEXT_POOL_SLAB_BLOCKS - 1; i++) {
+			slab[i].next = &slab[i + 1];
+		}
+		slab[CONTEXT_POOL_SLAB_BLOCKS - 1].next = NULL;
+		pushShared(&slab[CONTEXT_POOL_BATCH],
+				CONTEXT_POOL_SLAB_BLOCKS - CONTEXT_POOL_BATCH);
+
+		tc.add(POOL_STAT_SLABS, 1);
+		tc.add(POOL_STAT_BLOCKS, CONTEXT_POOL_SLAB_BLOCKS);
+		return true;
+	}
+
+public:
+	/**
+	 * @return uninitialized memory for a T, or NULL if we couldn't get any.
+	 */
+	static T *acquire() {
+		ThreadCache &tc = cache;
+		if (NULL != tc.head) {
+			tc.add(POOL_STAT_THREAD_HITS, 1);
+		} else if (!refill(tc)) {
+			return NULL;
+		}
+
+		Block *block = tc.head;
+		tc.head = block->next;
+		tc.count--;
+		block->next = NULL;
+
+		tc.add(POOL_STAT_ACQUIRED, 1);
+		return &block->value;
+	}
+
+	/**
+	 * Give back memory from acquire.  Any destructor has to have been run already.
+	 */
+	static void release(T *value) {
+		if (NULL == value) {
+			return;
+		}
+
+		Block *block = reinterpret_cast<Block *>(value);
+		ThreadCache &tc = cache;
+		block->next = tc.head;
+		tc.head = block;
+		tc.count++;
+		tc.add(POOL_STAT_RELEASED, 1);
+
+		if (tc.count > CONTEXT_POOL_THREAD_CACHE_MAX) {
+			// threads that only free, like the reference handler, would hoard blocks otherwise.
+			size_t keep = CONTEXT_POOL_THREAD_CACHE_MAX / 2;
+			Block *last = tc.head;
+			for (size_t i = 1; i < keep; i++) {
+				last = last->next;
+			}
+
+			Block *spill = last->next;
+			last->next = NULL;
+			size_t spilled = tc.count - keep;
+			tc.count = keep;
+			pushShared(spill, spilled);
+		}
+	}
+
+	/**
+	 * Add up the counters from every thread, see ContextPoolStat for what is where.  Threads carry on while this
+	 * reads, so released can briefly be ahead of acquired when a block moves between threads.
+	 *
+	 * @return the number of stats written.
+	 */
+	static int getStats(jlong *out, int len) {
+		int i = 0;
+		pthread_mutex_lock(&sharedLock);
+		for (; i < len && i < POOL_STAT_COUNT; i++) {
+			jlong total = exitedStats[i];
+			for (ThreadCache *tc = liveCaches; NULL != tc; tc = tc->next) {
+				total += __atomic_load_n(&tc->stats[i], __ATOMIC_RELAXED);
+			}
+			out[i] = total;
+		}
+		pthread_mutex_unlock(&sharedLock);
+
+		if (POOL_STAT_BLOCK_SIZE < len) {
+			out[POOL_STAT_BLOCK_SIZE] = sizeof(Block);
+		}
+
+		return i;
+	}
+};
+
+template<typename T> thread_local typename ContextPool<T>::ThreadCache ContextPool<T>::cache;
+template<typename T> pthread_mutex_t ContextPool<T>::sharedLock = PTHREAD_MUTEX_INITIALIZER;
+template<typename T> typename ContextPool<T>::Block *ContextPool<T>::sharedHead = NULL;
+template<typename T> size_t ContextPool<T>::sharedCount = 0;
+template<typename T> typename ContextPool<T>::ThreadCache *ContextPool<T>::liveCaches = NULL;
+template<typename T> jlong ContextPool<T>::exitedStats[POOL_STAT_COUNT] = { 0, };
+
+#endif //__CONTEXT_POOL_H__
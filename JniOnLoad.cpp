@@ -0,0 +1,60 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+#include <jni.h>
+#include <stdio.h>
+
+#include "jni_helper_defines.h"
+#include "PointerHelper.h"
+#include "JniOnLoad.h"
+
+jclass cachedExceptionClasses[CACHED_EXCEPTION_COUNT] = { 0, };
+
+/**
+ * Resolve every class and id we use once, while the library loads.
+ * Nothing can call a native until this returns, so the natives read plain globals with no lazy init to race on, and
+ * the error paths never need to look anything up.
+ */
+JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM *jvm, void *reserved) {
+	JNIEnv *jenv = NULL;
+	if (JNI_OK != jvm->GetEnv((void **) &jenv, JNI_VERSION_1_6)) {
+		return JNI_ERR;
+	}
+
+	for (size_t i = 0; i < CACHED_EXCEPTION_COUNT; i++) {
+		jclass clazz = jenv->FindClass(cachedExceptionNames[i]);
+		if (NULL == clazz) {
+			fprintf(stderr, "Error, cannot find exception class: %s\n",
+					cachedExceptionNames[i]);
+			return JNI_ERR;
+		}
+
+		cachedExceptionClasses[i] = (jclass) jenv->NewGlobalRef(clazz);
+		jenv->DeleteLocalRef(clazz);
+		if (NULL == cachedExceptionClasses[i]) {
+			return JNI_ERR;
+		}
+	}
+
+	if (!pointerHelper::onLoad(jenv) || !jniContextAccessOnLoad(jenv)) {
+		return JNI_ERR;
+	}
+
+	return JNI_VERSION_1_6;
+}
+
+JNIEXPORT void JNICALL JNI_OnUnload(JavaVM *jvm, void *reserved) {
+	JNIEnv *jenv = NULL;
+	if (JNI_OK != jvm->GetEnv((void **) &jenv, JNI_VERSION_1_6)) {
+		return;
+	}
+
+	jniContextAccessOnUnload(jenv);
+	pointerHelper::onUnload(jenv);
+
+	for (size_t i = 0; i < CACHED_EXCEPTION_COUNT; i++) {
+		if (NULL != cachedExceptionClasses[i]) {
+			jenv->DeleteGlobalRef(cachedExceptionClasses[i]);
+			cachedExceptionClasses[i] = NULL;
+		}
+	}
+}
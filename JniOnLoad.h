@@ -0,0 +1,12 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+#ifndef __JNI_ON_LOAD_H__
+#define __JNI_ON_LOAD_H__
+
+#include <jni.h>
+
+/** Resolve jni/JniContext and its constructor, from JNI_OnLoad. */
+bool jniContextAccessOnLoad(JNIEnv *jenv);
+void jniContextAccessOnUnload(JNIEnv *jenv);
+
+#endif //__JNI_ON_LOAD_H__
@@ -15,6 +15,93 @@ typedef void (*freeFunctionPtr)(void*);
 #define DEAD_HEADER 0xDEADC0DE
 #define DEAD_FOOTER 0xDEADBEEF
 
+/** Indexes into a row of the leak counts table, these match yjava.jni.cleaner.NativeLeakCounts. */
+enum LeakCount {
+	LEAK_COUNT_ALLOCATED = 0,
+	LEAK_COUNT_FREED,
+	LEAK_COUNT_BYTES_ALLOCATED,
+	LEAK_COUNT_BYTES_FREED,
+	LEAK_COUNT_BYTES_LOST,
+	LEAK_COUNT_FIELDS
+};
+
+/**
+ * Per leak site allocation and free counts and bytes, in a direct buffer Java allocated and handed us once.
+ * There's a row per site, and one more at the end for contexts made with an index that isn't a site.
+ * The rows are repeated once per stripe, and each thread counts into its own stripe so threads don't fight
+ * over one cache line per site, Java adds the stripes up when it reads them.
+ */
+struct LeakCountTable {
+	jlong *counts;
+	jint sites;
+	/** stripes - 1, stripes is a power of 2. */
+	jint stripeMask;
+	/** longs from the start of one stripe to the next. */
+	jlong stripeLongs;
+
+	/** one table per library, an inline function's static is shared across every file that includes this. */
+	static LeakCountTable &get() {
+		static LeakCountTable table = { NULL, 0, 0, 0 };
+		return table;
+	}
+
+	/** threads take stripes round robin the first time they count, two threads only share one past stripes threads. */
+	static jint threadStripe() {
+		static jint nextStripe = 0;
+		static thread_local jint stripe = -1;
+		if (stripe < 0) {
+			stripe = __atomic_fetch_add(&nextStripe, 1, __ATOMIC_RELAXED)
+					& 0x7fffffff;
+		}
+		return stripe;
+	}
+
+	/** @return the row for leakIndex, or NULL if Java hasn't handed us a table. */
+	static jlong *row(int leakIndex) {
+		LeakCountTable &table = get();
+		jlong *counts = __atomic_load_n(&table.counts, __ATOMIC_ACQUIRE);
+		if (NULL == counts) {
+			return NULL;
+		}
+
+		int row = (leakIndex >= 0 && leakIndex < table.sites) ?
+				leakIndex : table.sites;
+		// still atomic adds, threads past the number of stripes share them.
+		return &counts[(threadStripe() & table.stripeMask) * table.stripeLongs
+				+ row * LEAK_COUNT_FIELDS];
+	}
+
+	static void count(int leakIndex, LeakCount which, jlong amount) {
+		jlong *counts = row(leakIndex);
+		if (NULL != counts) {
+			__atomic_fetch_add(&counts[which], amount, __ATOMIC_RELAXED);
+		}
+	}
+
+	static void allocated(int leakIndex, jlong size) {
+		jlong *counts = row(leakIndex);
+		if (NULL != counts) {
+			__atomic_fetch_add(&counts[LEAK_COUNT_ALLOCATED], 1,
+					__ATOMIC_RELAXED);
+			__atomic_fetch_add(&counts[LEAK_COUNT_BYTES_ALLOCATED], size,
+					__ATOMIC_RELAXED);
+		}
+	}
+
+	static void freed(int leakIndex, jlong size, bool leaked) {
+		jlong *counts = row(leakIndex);
+		if (NULL != counts) {
+			__atomic_fetch_add(&counts[LEAK_COUNT_FREED], 1, __ATOMIC_RELAXED);
+			__atomic_fetch_add(&counts[LEAK_COUNT_BYTES_FREED], size,
+					__ATOMIC_RELAXED);
+			if (leaked) {
+				__atomic_fetch_add(&counts[LEAK_COUNT_BYTES_LOST], size,
+						__ATOMIC_RELAXED);
+			}
+		}
+	}
+};
+
 /**
  * This is the base class that does the heavy lifting around keeping track of the leaks, and returning the C struct you are wrapping.
  */
@@ -24,29 +111,71 @@ protected:
 	int leakIndex;
 	void *pointer;
 	freeFunctionPtr freeFunc;
+	/** frees the LeakContext itself, NULL means it came from new. */
+	freeFunctionPtr deleteFunc;
+	/** native bytes this context accounts for, the struct and whatever it points to. */
+	jlong size;
 	unsigned long footer;
 
 public:
-	LeakContext(int leakIndex, freeFunctionPtr freeFunc) :
+	/**
+	 * size is what shows up in the per site byte counts, it defaults to just the LeakContext.
+	 * Pass the size of the wrapper plus the struct it owns and any payload, or call resize once that's known.
+	 */
+	LeakContext(int leakIndex, freeFunctionPtr freeFunc, jlong size =
+			sizeof(LeakContext)) :
 			header(HEADER_CHECK), leakIndex(leakIndex), pointer(NULL), freeFunc(
-					freeFunc), footer(FOOTER_CHECK) {
+					freeFunc), deleteFunc(NULL), size(size), footer(
+					FOOTER_CHECK) {
 		if (NULL == freeFunc) {
 			abort();
 		}
+		LeakCountTable::allocated(leakIndex, size);
 	}
 
-	LeakContext(int leakIndex, void* pointer, freeFunctionPtr freeFunc) :
+	LeakContext(int leakIndex, void* pointer, freeFunctionPtr freeFunc,
+			jlong size = sizeof(LeakContext)) :
 			header(HEADER_CHECK), leakIndex(leakIndex), pointer(pointer), freeFunc(
-					freeFunc), footer(FOOTER_CHECK) {
+					freeFunc), deleteFunc(NULL), size(size), footer(
+					FOOTER_CHECK) {
 		if (NULL == freeFunc) {
 			abort();
 		}
+		LeakCountTable::allocated(leakIndex, size);
+	}
+
+	/**
+	 * For contexts that live in memory from somewhere other than new, like a ContextPool.
+	 * deleteFunc is called instead of delete once the context has been marked dead.
+	 */
+	LeakContext(int leakIndex, void* pointer, freeFunctionPtr freeFunc,
+			freeFunctionPtr deleteFunc, jlong size = sizeof(LeakContext)) :
+			header(HEADER_CHECK), leakIndex(leakIndex), pointer(pointer), freeFunc(
+					freeFunc), deleteFunc(deleteFunc), size(size), footer(
+					FOOTER_CHECK) {
+		if (NULL == freeFunc || NULL == deleteFunc) {
+			abort();
+		}
+		LeakCountTable::allocated(leakIndex, size);
 	}
 
 	int getLeakIndex() {
 		return leakIndex;
 	}
 
+	jlong getSize() {
+		return size;
+	}
+
+	/**
+	 * For a payload that grows or shrinks after the context was made, so the byte counts follow it.
+	 */
+	void resize(jlong newSize) {
+		LeakCountTable::count(leakIndex, LEAK_COUNT_BYTES_ALLOCATED,
+				newSize - size);
+		size = newSize;
+	}
+
 	static LeakContext *getLeakContext(jlong pointer) {
 		LeakContext *context = reinterpret_cast<LeakContext*>(pointer);
 		assert(context->header == HEADER_CHECK);
@@ -54,27 +183,38 @@ public:
 		return context;
 	}
 
-	static int release(jlong pointer, int r) {
-		return release(getLeakContext(pointer), r);
+	/**
+	 * leaked is set when this is freeing something that was never closed, so its bytes are counted as lost.
+	 */
+	static int release(jlong pointer, int r, bool leaked = false) {
+		return release(getLeakContext(pointer), r, leaked);
 	}
 
-	static int release(LeakContext *context, int r) {
+	static int release(LeakContext *context, int r, bool leaked = false) {
 		if (NULL == context) {
 			return -1;
 		}
 
 		assert(context->header == HEADER_CHECK);
 		assert(context->footer == FOOTER_CHECK);
+		int leakIndex = context->leakIndex;
+		jlong size = context->size;
 		if (NULL != context->pointer) {
 			(*(context->freeFunc))(context->pointer);
 			context->pointer = NULL;
 		}
 		context->header = DEAD_HEADER;
 		context->footer = DEAD_FOOTER;
+		LeakCountTable::freed(leakIndex, size, leaked);
 
-		delete (context);
+		if (NULL != context->deleteFunc) {
+			// the canaries stay dead while it sits in the pool.
+			(*(context->deleteFunc))(context);
+		} else {
+			delete (context);
+		}
 
-		return 0;
+		return leakIndex;
 	}
 
 	/**
@@ -107,8 +247,14 @@ public:
 				"LeakContext::getContext null pointer");
 
 		jlong cPointer = pointerHelper::getPointer(jenv, pointer);
-		RETURN_NULL_AND_THROW_IF_NULL(cPointer,
-				"LeakContext::getContext null cPointer");
+		if (jenv->ExceptionCheck()) {
+			return NULL;
+		}
+		if (0 == cPointer) {
+			ThrowException(jenv, ILLEGAL_STATE_EXCEPTION,
+					"Context has been released");
+			return NULL;
+		}
 
 		LeakContext *lc = reinterpret_cast<LeakContext*>(cPointer);
 		assert(lc->header == HEADER_CHECK);
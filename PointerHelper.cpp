@@ -14,6 +14,7 @@ DECLARE_CACHED_CLASS(pointerClass, "yjava/jni/cleaner/Pointer");
 DECLARE_CACHED_METHOD_ID(pointerClass, pointerCtorId, "<init>", "(J)V");
 DECLARE_CACHED_METHOD_ID(pointerClass, pointerGetPointerId, "getCPointer",
 		"()J");
+DECLARE_CACHED_FIELD_ID(pointerClass, pointerFieldId, "pointer", "J");
 
 /**
  * Declare a static variable for the PointerAccess interface that lies between the Java and us.
@@ -54,18 +55,6 @@ bool throwWithClassInformation(JNIEnv *jenv, jobject obj, const char *className,
 		return false;
 	}
 
-	GET_CACHED_CLASS(jenv, classClass);
-	if (NULL == classClass || jenv->ExceptionCheck()) {
-		ThrowException(jenv, CLASS_CAST_EXCEPTION, exceptionMesg);
-		return false;
-	}
-
-	GET_CACHED_METHOD_ID(jenv, classGetNameId);
-	if (NULL == classGetNameId || jenv->ExceptionCheck()) {
-		ThrowException(jenv, CLASS_CAST_EXCEPTION, exceptionMesg);
-		return false;
-	}
-
 	// almost there, we need to call getName.
 	jstring name = (jstring) jenv->CallObjectMethod(clsObj, classGetNameId);
 	if (NULL == name || jenv->ExceptionCheck()) {
@@ -112,51 +101,104 @@ jobject pointerHelper::createJavaContextObject(JNIEnv *jenv,
 	return jresult;
 }
 
+jobject pointerHelper::createJavaAddressContextObject(JNIEnv *jenv,
+		jclass contextClass, jmethodID constructorId, LeakContext *c_context) {
+
+	if (LeakContext::failAndFreeIfExceptionOrNull(jenv, contextClass,
+			c_context)) {
+		return NULL;
+	}
+
+	if (LeakContext::failAndFreeIfExceptionOrNull(jenv, constructorId,
+			c_context)) {
+		return NULL;
+	}
+
+	/* A Java Context Object is just:  Context(long c_pointer, int leakIndex) */
+	jobject jresult = jenv->NewObject(contextClass, constructorId,
+			reinterpret_cast<jlong>(c_context), (jint) c_context->getLeakIndex());
+	if (LeakContext::failAndFreeIfExceptionOrNull(jenv, jresult, c_context)) {
+		return NULL;
+	}
+
+	return jresult;
+}
+
 jlong pointerHelper::getPointer(JNIEnv *jenv, jobject pointer) {
 	if (NULL == pointer) {
 		abort();
 		return 0;
 	}
 
-	GET_CACHED_CLASS(jenv, pointerClass);
-	RETURN_NULL_IF_EXCEPTION_OR_NULL (pointerClass);
-
-	GET_CACHED_METHOD_ID(jenv, pointerGetPointerId);
-	RETURN_NULL_IF_EXCEPTION_OR_NULL (pointerGetPointerId);
-
+	// everything used here was resolved by onLoad.
+#ifdef YJAVA_DEBUG_TYPEMAPS
+	// the slow way, check it really is a Pointer and ask it.
 	if (!throwWithClassInformation(jenv, pointer, "yjava/jni/cleaner/Pointer",
 			pointerClass, "oops not a ")) {
-		return NULL;
+		return 0;
 	}
 
 	return jenv->CallLongMethod(pointer, pointerGetPointerId);
+#else //YJAVA_DEBUG_TYPEMAPS
+	// Pointer.pointer is a public long, just read it.
+	return jenv->GetLongField(pointer, pointerFieldId);
+#endif //YJAVA_DEBUG_TYPEMAPS
 }
 
 jobject pointerHelper::getPointerFromContext(JNIEnv *jenv, jobject context) {
 	RETURN_NULL_IF_EXCEPTION_OR_NULL(context);
 
-	GET_CACHED_CLASS(jenv, pointerAccessClass);
-	RETURN_NULL_IF_EXCEPTION_OR_NULL (pointerClass);
-
-	GET_CACHED_METHOD_ID(jenv, pointerAccessGetPointerId);
-	RETURN_NULL_IF_EXCEPTION_OR_NULL (pointerAccessGetPointerId);
-
+#ifdef YJAVA_DEBUG_TYPEMAPS
+	// the native's Java signature already makes this a PointerAccess, onLoad checked the classes once.
 	if (!throwWithClassInformation(jenv, context,
 			"yjava/jni/cleaner/PointerAccess", pointerAccessClass,
 			"oops not a ")) {
 		return NULL;
 	}
+#endif //YJAVA_DEBUG_TYPEMAPS
 
 	return jenv->CallObjectMethod(context, pointerAccessGetPointerId);
 }
 
-jobject pointerHelper::createPointer(JNIEnv *jenv, void *cPointer) {
-	GET_CACHED_CLASS(jenv, pointerClass);
-	RETURN_NULL_IF_EXCEPTION_OR_NULL (pointerClass);
+/**
+ * Runs once from JNI_OnLoad, before any native can be called, so nothing after this has to check or race to fill these
+ * in.
+ */
+bool pointerHelper::onLoad(JNIEnv *jenv) {
+	return NULL != GET_CACHED_CLASS(jenv, pointerClass)
+			&& NULL != GET_CACHED_METHOD_ID(jenv, pointerCtorId)
+			&& NULL != GET_CACHED_METHOD_ID(jenv, pointerGetPointerId)
+			&& NULL != GET_CACHED_FIELD_ID(jenv, pointerFieldId)
+			&& NULL != GET_CACHED_CLASS(jenv, pointerAccessClass)
+			&& NULL != GET_CACHED_METHOD_ID(jenv, pointerAccessGetPointerId)
+			&& NULL != GET_CACHED_CLASS(jenv, classClass)
+			&& NULL != GET_CACHED_METHOD_ID(jenv, classGetNameId);
+}
 
-	GET_CACHED_METHOD_ID(jenv, pointerCtorId);
-	RETURN_NULL_IF_EXCEPTION_OR_NULL (pointerCtorId);
+void pointerHelper::onUnload(JNIEnv *jenv) {
+	if (NULL != pointerClass) {
+		jenv->DeleteGlobalRef(pointerClass);
+		pointerClass = NULL;
+	}
+
+	if (NULL != pointerAccessClass) {
+		jenv->DeleteGlobalRef(pointerAccessClass);
+		pointerAccessClass = NULL;
+	}
 
+	if (NULL != classClass) {
+		jenv->DeleteGlobalRef(classClass);
+		classClass = NULL;
+	}
+
+	pointerCtorId = NULL;
+	pointerGetPointerId = NULL;
+	pointerFieldId = NULL;
+	pointerAccessGetPointerId = NULL;
+	classGetNameId = NULL;
+}
+
+jobject pointerHelper::createPointer(JNIEnv *jenv, void *cPointer) {
 //	fprintf(stderr, "%d: context: %p\n", __LINE__, cPointer);
 
 	return jenv->NewObject(pointerClass, pointerCtorId,
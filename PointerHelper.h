@@ -12,11 +12,17 @@ class LeakContext;
  */
 class pointerHelper {
 public:
+	/** Resolve the Pointer and PointerAccess classes and ids, from JNI_OnLoad. */
+	static bool onLoad(JNIEnv *jenv);
+	static void onUnload(JNIEnv *jenv);
 	static jlong getPointer(JNIEnv *jenv, jobject pointer);
 	static jobject getPointerFromContext(JNIEnv *jenv, jobject context);
 	static jobject createPointer(JNIEnv *jenv, void *cPointer);
 	static jobject createJavaContextObject(JNIEnv *jenv, jclass contextClass,
 			jmethodID constructorId, LeakContext *c_context);
+	static jobject createJavaAddressContextObject(JNIEnv *jenv,
+			jclass contextClass, jmethodID constructorId,
+			LeakContext *c_context);
 };
 
 #endif //__POINTER_HELPER_H__
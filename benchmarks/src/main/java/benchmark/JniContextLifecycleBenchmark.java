@@ -0,0 +1,222 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jni.JniContext;
+import jni.JniContextPool;
+
+/**
+ * Measures each step of the JniContext lifecycle on its own, on a single thread.
+ *
+ * create, close and double close are measured in batches of {@link #BATCH}, so the per invocation setup that
+ * creates or frees the other half of the lifecycle is amortized away. The leak benchmark never closes, so it is the
+ * cost of a create plus whatever the Cleaner and GC charge to reclaim it.
+ *
+ * Run from the project root so libtest is found, see the README for the command line.
+ *
+ * @author areese
+ *
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.library.path=."})
+@Threads(1)
+public class JniContextLifecycleBenchmark {
+    static final int BATCH = 1000;
+
+    /**
+     * A single context that lives for the whole trial, for execute.
+     */
+    @State(Scope.Thread)
+    public static class OpenContext {
+        JniContext context;
+
+        @Setup(Level.Trial)
+        public void setup(LeakMode mode) {
+            context = JniContext.create();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            context.close();
+        }
+    }
+
+    /**
+     * A pool shared by every thread, so the contended subclass measures the shared stripes too.
+     */
+    @State(Scope.Benchmark)
+    public static class Pool {
+        JniContextPool pool;
+
+        @Setup(Level.Trial)
+        public void setup(LeakMode mode) {
+            pool = new JniContextPool("JniContextBenchmark");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            pool.close();
+        }
+    }
+
+    /**
+     * A reused direct buffer for execute to copy into.
+     */
+    @State(Scope.Thread)
+    public static class DirectOut {
+        final ByteBuffer out = ByteBuffer.allocateDirect(1024);
+    }
+
+    /**
+     * An empty batch to create into, closed after each invocation.
+     */
+    @State(Scope.Thread)
+    public static class EmptyBatch {
+        final JniContext[] contexts = new JniContext[BATCH];
+
+        @Setup(Level.Trial)
+        public void setup(LeakMode mode) {
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            closeAll(contexts);
+        }
+    }
+
+    /**
+     * A batch of open contexts to close.
+     */
+    @State(Scope.Thread)
+    public static class OpenBatch {
+        final JniContext[] contexts = new JniContext[BATCH];
+
+        @Setup(Level.Invocation)
+        public void setup(LeakMode mode) {
+            createAll(contexts);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            closeAll(contexts);
+        }
+    }
+
+    /**
+     * A batch of contexts that have already been closed once.
+     */
+    @State(Scope.Thread)
+    public static class ClosedBatch {
+        final JniContext[] contexts = new JniContext[BATCH];
+
+        @Setup(Level.Invocation)
+        public void setup(LeakMode mode) {
+            createAll(contexts);
+            closeAll(contexts);
+        }
+    }
+
+    static void createAll(JniContext[] contexts) {
+        for (int i = 0; i < contexts.length; i++) {
+            contexts[i] = JniContext.create();
+        }
+    }
+
+    static void closeAll(JniContext[] contexts) {
+        for (int i = 0; i < contexts.length; i++) {
+            if (null != contexts[i]) {
+                contexts[i].close();
+                contexts[i] = null;
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public JniContext[] create(EmptyBatch batch) {
+        JniContext[] contexts = batch.contexts;
+        for (int i = 0; i < contexts.length; i++) {
+            contexts[i] = JniContext.create();
+        }
+
+        return contexts;
+    }
+
+    @Benchmark
+    public String execute(OpenContext open) {
+        return open.context.execute();
+    }
+
+    /**
+     * execute without the String, the result is copied into a direct buffer.
+     */
+    @Benchmark
+    public int executeDirect(OpenContext open, DirectOut direct) {
+        direct.out.clear();
+        return open.context.execute(direct.out);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void close(OpenBatch batch) {
+        JniContext[] contexts = batch.contexts;
+        for (int i = 0; i < contexts.length; i++) {
+            contexts[i].close();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void doubleClose(ClosedBatch batch) {
+        JniContext[] contexts = batch.contexts;
+        for (int i = 0; i < contexts.length; i++) {
+            contexts[i].close();
+        }
+    }
+
+    @Benchmark
+    public String createExecuteClose(LeakMode mode) {
+        try (JniContext context = JniContext.create()) {
+            return context.execute();
+        }
+    }
+
+    /**
+     * createExecuteClose, with the context leased from a pool.
+     */
+    @Benchmark
+    public String leaseExecuteReturn(Pool pool) {
+        try (JniContextPool.Lease lease = pool.pool.lease()) {
+            return lease.execute();
+        }
+    }
+
+    /**
+     * Never closes, the Cleaner has to reclaim every context.
+     */
+    @Benchmark
+    public String leak(LeakMode mode) {
+        return JniContext.create().execute();
+    }
+}
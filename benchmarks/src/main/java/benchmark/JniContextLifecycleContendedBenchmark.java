@@ -0,0 +1,16 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package benchmark;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * The same lifecycle benchmarks as {@link JniContextLifecycleBenchmark}, with one thread per core fighting over the
+ * shared leak counters, the Cleaner and the native allocator.
+ *
+ * @author areese
+ *
+ */
+@Threads(Threads.MAX)
+public class JniContextLifecycleContendedBenchmark extends JniContextLifecycleBenchmark {
+}
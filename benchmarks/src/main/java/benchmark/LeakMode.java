@@ -0,0 +1,52 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package benchmark;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Picks how much leak detection JniContext runs with.
+ *
+ * JniContext reads its leak detection properties once in a static block, so these have to be set before anything
+ * touches JniContext. Each param value gets its own fork, and every other state takes this one in its setup so it runs
+ * first.
+ *
+ * @author areese
+ *
+ */
+@State(Scope.Benchmark)
+public class LeakMode {
+    private static final String PREFIX = "yjava.example";
+
+    /**
+     * off: no LostReferenceCounter, counts: totals only, stacks: totals and allocation sites.
+     */
+    @Param({"off", "counts", "stacks"})
+    public String leakMode;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        switch (leakMode) {
+            case "off":
+                System.setProperty(PREFIX + ".enableLeakDetection", "false");
+                break;
+
+            case "counts":
+                System.setProperty(PREFIX + ".enableLeakDetection", "true");
+                System.setProperty(PREFIX + ".enableLeakLogs", "false");
+                break;
+
+            case "stacks":
+                System.setProperty(PREFIX + ".enableLeakDetection", "true");
+                System.setProperty(PREFIX + ".enableLeakLogs", "true");
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unknown leakMode " + leakMode);
+        }
+    }
+}
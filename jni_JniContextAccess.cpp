@@ -3,19 +3,21 @@
 #include <jni.h>
 #include <assert.h>
 #include <stdio.h>
+#include <string.h>
 
 #include "jni_JniContextAccess.h"
 #include "jni_helper_defines.h"
 
+#include "ContextPool.h"
 #include "LeakContext.h"
 #include "PointerHelper.h"
+#include "JniOnLoad.h"
 
 /**
  * Declare a static variable for the context class we'll be using.
  */
 DECLARE_CACHED_CLASS(jniContextClass, "jni/JniContext");
-DECLARE_CACHED_METHOD_ID(jniContextClass, jniContextCtorID, "<init>",
-		"(Lyjava/jni/cleaner/Pointer;)V");
+DECLARE_CACHED_METHOD_ID(jniContextClass, jniContextCtorID, "<init>", "(JI)V");
 
 #define RETURN_NULL_AND_THROW_IF_CONTEXT_NULL(jniContext, mesg) {\
     if (jenv->ExceptionCheck()) {\
@@ -44,108 +46,138 @@ struct C_CONTEXT {
 	size_t len;
 };
 
+#define MESSAGE_LEN 1024
+
+struct jniContextBlock;
+
 class jniContextStruct: public LeakContext {
 public:
-	jniContextStruct(int leakIndex, C_CONTEXT* pointer) :
-			LeakContext(leakIndex, pointer,
-					&jniContextStruct::jniContextStructFree) {
-	}
+	jniContextStruct(int leakIndex, C_CONTEXT* pointer);
 
 	C_CONTEXT *getPointer() {
 		return reinterpret_cast<C_CONTEXT*>(pointer);
 	}
 
+	/**
+	 * The C_CONTEXT and message live in the same pool block as we do, so there's nothing to free.
+	 */
 	static void jniContextStructFree(void *pointer) {
 		if (NULL == pointer) {
 			return;
 		}
 
 		C_CONTEXT *context = reinterpret_cast<C_CONTEXT*>(pointer);
-		if (NULL != context->message) {
-			free(context->message);
-			context->message = NULL;
-		}
-
-		free(context);
+		context->message = NULL;
+		context->len = 0;
 	}
 
-	static jniContextStruct *allocate(JNIEnv *jenv, int leakIndex,
-			C_CONTEXT *c_context) {
-		RETURN_NULL_IF_EXCEPTION_OR_NULL(c_context);
-
-		jniContextStruct *jniContext = new jniContextStruct(leakIndex,
-				c_context);
-		if (NULL == jniContext) {
-			jniContextStruct::jniContextStructFree(c_context);
-			c_context = NULL;
+	static void jniContextStructRecycle(void *context);
 
-			ThrowException(jenv, NULL_POINTER_EXCEPTION,
-					"Failed to allocate message");
-
-			return NULL;
-		}
-
-		return jniContext;
-	}
+	static jniContextStruct *allocate(JNIEnv *jenv, int leakIndex);
 };
 
-/*
- * Class:     jni_JniContextAccess
- * Method:    createContext
- * Signature: (I)Ljni/JniContext;
+/**
+ * Everything a context needs in one allocation, so create and release are a single pool operation each instead of
+ * 3 mallocs and 3 frees.
  */
-JNIEXPORT jobject
-JNICALL Java_jni_JniContextAccess_createContext(JNIEnv *jenv, jclass thisClass,
-		jint leakIndex) {
-
-	GET_CACHED_CLASS(jenv, jniContextClass);
-	RETURN_NULL_IF_EXCEPTION_OR_NULL(jniContextClass);
-
-	GET_CACHED_METHOD_ID(jenv, jniContextCtorID);
-	RETURN_NULL_IF_EXCEPTION_OR_NULL(jniContextCtorID);
+struct jniContextBlock {
+	/** has to be first, the LeakContext pointer is the block pointer. */
+	jniContextStruct context;
+	C_CONTEXT c_context;
+	/**
+	 * Bumped every time the block goes back to the pool.  The canaries are HEADER_CHECK again as soon as the block is
+	 * reused, so views handed to Java check this instead.  It's right before message so one buffer covers both.
+	 */
+	volatile jlong generation;
+	char message[MESSAGE_LEN];
+};
 
-	C_CONTEXT *c_context = (C_CONTEXT *) calloc(1, sizeof(C_CONTEXT));
-	RETURN_NULL_IF_EXCEPTION_OR_NULL(c_context);
+typedef ContextPool<jniContextBlock> jniContextPool;
 
-	c_context->someData = 0xC001C0DE;
-	c_context->len = 1024;
-	c_context->message = (char*) calloc(c_context->len, sizeof(char));
-	if (NULL == c_context->message) {
-		jniContextStruct::jniContextStructFree(c_context);
-		c_context = NULL;
+/**
+ * The whole block is counted against the leak site, not just the LeakContext, as it all lives and dies together.
+ */
+jniContextStruct::jniContextStruct(int leakIndex, C_CONTEXT* pointer) :
+		LeakContext(leakIndex, pointer, &jniContextStruct::jniContextStructFree,
+				&jniContextStruct::jniContextStructRecycle,
+				sizeof(jniContextBlock)) {
+}
 
-		ThrowException(jenv, NULL_POINTER_EXCEPTION,
-				"Failed to allocate message");
+void jniContextStruct::jniContextStructRecycle(void *context) {
+	jniContextBlock *block = reinterpret_cast<jniContextBlock*>(context);
+	__atomic_add_fetch(&block->generation, 1, __ATOMIC_RELEASE);
+	jniContextPool::release(block);
+}
 
+jniContextStruct *jniContextStruct::allocate(JNIEnv *jenv, int leakIndex) {
+	jniContextBlock *block = jniContextPool::acquire();
+	if (NULL == block) {
+		ThrowException(jenv, OUT_OF_MEMORY_ERROR, "Failed to allocate context");
 		return NULL;
 	}
 
+	C_CONTEXT *c_context = &block->c_context;
+	c_context->someData = 0xC001C0DE;
+	c_context->len = sizeof(block->message);
+	c_context->message = block->message;
 	snprintf(c_context->message, c_context->len, "This is some super cool jni");
 
-	jniContextStruct *jniContext = jniContextStruct::allocate(jenv, leakIndex,
-			c_context);
-	if (NULL == jniContext) {
-		jniContextStruct::jniContextStructFree(c_context);
-		c_context = NULL;
+	return new (&block->context) jniContextStruct(leakIndex, c_context);
+}
 
-		ThrowException(jenv, NULL_POINTER_EXCEPTION,
-				"Failed to allocate message");
+bool jniContextAccessOnLoad(JNIEnv *jenv) {
+	return NULL != GET_CACHED_CLASS(jenv, jniContextClass)
+			&& NULL != GET_CACHED_METHOD_ID(jenv, jniContextCtorID);
+}
 
-		return NULL;
+void jniContextAccessOnUnload(JNIEnv *jenv) {
+	if (NULL != jniContextClass) {
+		jenv->DeleteGlobalRef(jniContextClass);
+		jniContextClass = NULL;
 	}
 
-	return pointerHelper::createJavaContextObject(jenv, jniContextClass,
+	jniContextCtorID = NULL;
+}
+
+/*
+ * Class:     jni_JniContextAccess
+ * Method:    createContext
+ * Signature: (I)Ljni/JniContext;
+ */
+JNIEXPORT jobject
+JNICALL Java_jni_JniContextAccess_createContext(JNIEnv *jenv, jclass thisClass,
+		jint leakIndex) {
+
+	// jniContextClass and jniContextCtorID were resolved by JNI_OnLoad.
+	jniContextStruct *jniContext = jniContextStruct::allocate(jenv, leakIndex);
+	RETURN_NULL_IF_EXCEPTION_OR_NULL(jniContext);
+
+	return pointerHelper::createJavaAddressContextObject(jenv, jniContextClass,
 			jniContextCtorID, jniContext);
 }
 
+/*
+ * Class:     jni_JniContextAccess
+ * Method:    createContextAddress
+ * Signature: (I)J
+ */
+JNIEXPORT jlong
+JNICALL Java_jni_JniContextAccess_createContextAddress(JNIEnv *jenv,
+		jclass thisClass, jint leakIndex) {
+	jniContextStruct *jniContext = jniContextStruct::allocate(jenv, leakIndex);
+	RETURN_NULL_IF_EXCEPTION_OR_NULL(jniContext);
+
+	return (jlong) jniContext;
+}
+
 /*
  * Class:     jni_JniContextAccess
  * Method:    execute
- * Signature: (Ljni/JniContext;)Ljava/lang/String;
+ * Signature: (Ljava/lang/Object;Ljni/JniContext;)Ljava/lang/String;
  */
 JNIEXPORT jstring
 JNICALL Java_jni_JniContextAccess_execute(JNIEnv *jenv, jclass thisClass,
-		jobject contextObject) {
+		jobject owner, jobject contextObject) {
 
 	// get the pointer out.
 	RETURN_NULL_AND_THROW_IF_NULL(contextObject, "null context");
@@ -164,23 +196,25 @@ JNICALL Java_jni_JniContextAccess_execute(JNIEnv *jenv, jclass thisClass,
 /*
  * Class:     jni_JniContextAccess
  * Method:    release
- * Signature: (Lcleaner/Pointer;)I
+ * Signature: (Lcleaner/Pointer;Z)I
  */
 JNIEXPORT jint
 JNICALL Java_jni_JniContextAccess_release(JNIEnv *jenv, jclass thisClass,
-		jobject pointerObject) {
+		jobject pointerObject, jboolean leaked) {
+	// -1 is nothing freed, 0 is a leak index.
 	if (NULL == pointerObject) {
-		return 0;
+		return -1;
 	}
 
 	jniContextStruct *jniContext =
 			(jniContextStruct *) jniContextStruct::getContextPointer(jenv,
 					pointerObject);
 	if (NULL == jniContext) {
-		return NULL;
+		// already released, nothing to free.
+		return -1;
 	}
 
-	return jniContextStruct::release(jniContext, 52);
+	return jniContextStruct::release(jniContext, 52, JNI_TRUE == leaked);
 
 }
 
@@ -202,3 +236,272 @@ JNICALL Java_jni_JniContextAccess_getLeakIndex(JNIEnv *jenv, jclass thisClass,
 
 	return jniContext->getLeakIndex();
 }
+
+/*
+ * Class:     jni_JniContextAccess
+ * Method:    executeAddress
+ * Signature: (Ljava/lang/Object;J)Ljava/lang/String;
+ */
+JNIEXPORT jstring
+JNICALL Java_jni_JniContextAccess_executeAddress(JNIEnv *jenv, jclass thisClass,
+		jobject owner, jlong pointer) {
+	RETURN_NULL_AND_THROW_IF_NULL(pointer, "null pointer");
+
+	jniContextStruct *jniContext =
+			(jniContextStruct *) LeakContext::getLeakContext(pointer);
+	RETURN_NULL_AND_THROW_IF_CONTEXT_NULL(jniContext, "null jniContext");
+
+	if (NULL == jniContext->getPointer()->message) {
+		return NULL;
+	}
+
+	return jenv->NewStringUTF((const char *) jniContext->getPointer()->message);
+}
+
+/**
+ * Copy the message to out if it fits in len.
+ *
+ * @return the length of the message, or -1 if there's an exception.
+ */
+static jint copyMessage(JNIEnv *jenv, jlong pointer, char *out, jint len) {
+	jniContextStruct *jniContext =
+			(jniContextStruct *) LeakContext::getLeakContext(pointer);
+	if (NULL == jniContext) {
+		ThrowNullPointerException(jenv, "null jniContext");
+		return -1;
+	}
+
+	C_CONTEXT *context = jniContext->getPointer();
+	if (NULL == context->message) {
+		return 0;
+	}
+
+	jint messageLen = (jint) strnlen(context->message, context->len);
+	if (messageLen <= len) {
+		memcpy(out, context->message, messageLen);
+	}
+
+	return messageLen;
+}
+
+/*
+ * Class:     jni_JniContextAccess
+ * Method:    executeToBuffer
+ * Signature: (Ljava/lang/Object;JLjava/nio/ByteBuffer;II)I
+ */
+JNIEXPORT jint
+JNICALL Java_jni_JniContextAccess_executeToBuffer(JNIEnv *jenv,
+		jclass thisClass, jobject owner, jlong pointer, jobject out,
+		jint offset, jint len) {
+	RETURN_NULL_AND_THROW_IF_NULL(pointer, "null pointer");
+	RETURN_NULL_AND_THROW_IF_NULL(out, "null out");
+
+	char *base = (char *) jenv->GetDirectBufferAddress(out);
+	if (NULL == base) {
+		ThrowException(jenv, ILLEGAL_ARGUMENT_EXCEPTION,
+				"out is not a direct buffer");
+		return 0;
+	}
+
+	return copyMessage(jenv, pointer, base + offset, len);
+}
+
+/*
+ * Class:     jni_JniContextAccess
+ * Method:    executeToAddress
+ * Signature: (Ljava/lang/Object;JJI)I
+ */
+JNIEXPORT jint
+JNICALL Java_jni_JniContextAccess_executeToAddress(JNIEnv *jenv,
+		jclass thisClass, jobject owner, jlong pointer, jlong out, jint len) {
+	RETURN_NULL_AND_THROW_IF_NULL(pointer, "null pointer");
+	RETURN_NULL_AND_THROW_IF_NULL(out, "null out");
+
+	return copyMessage(jenv, pointer, (char *) out, len);
+}
+
+/*
+ * Class:     jni_JniContextAccess
+ * Method:    getMessageView
+ * Signature: (Ljava/lang/Object;J)Ljava/nio/ByteBuffer;
+ */
+JNIEXPORT jobject
+JNICALL Java_jni_JniContextAccess_getMessageView(JNIEnv *jenv,
+		jclass thisClass, jobject owner, jlong pointer) {
+	RETURN_NULL_AND_THROW_IF_NULL(pointer, "null pointer");
+
+	jniContextStruct *jniContext =
+			(jniContextStruct *) LeakContext::getLeakContext(pointer);
+	RETURN_NULL_AND_THROW_IF_CONTEXT_NULL(jniContext, "null jniContext");
+
+	// the pool never frees a slab, so this memory stays mapped even after the context is released.
+	jniContextBlock *block = reinterpret_cast<jniContextBlock*>(jniContext);
+	size_t messageLen = strnlen(block->message, sizeof(block->message));
+
+	return jenv->NewDirectByteBuffer((void *) &block->generation,
+			sizeof(block->generation) + messageLen);
+}
+
+/*
+ * Class:     jni_JniContextAccess
+ * Method:    releaseAddress
+ * Signature: (JZ)I
+ */
+JNIEXPORT jint
+JNICALL Java_jni_JniContextAccess_releaseAddress(JNIEnv *jenv, jclass thisClass,
+		jlong pointer, jboolean leaked) {
+	if (0 == pointer) {
+		return -1;
+	}
+
+	return jniContextStruct::release(pointer, 52, JNI_TRUE == leaked);
+}
+
+/*
+ * Class:     jni_JniContextAccess
+ * Method:    releaseAll
+ * Signature: ([JI[IZ)I
+ */
+JNIEXPORT jint
+JNICALL Java_jni_JniContextAccess_releaseAll(JNIEnv *jenv, jclass thisClass,
+		jlongArray pointerArray, jint count, jintArray leakIndexArray,
+		jboolean leaked) {
+	RETURN_NULL_AND_THROW_IF_NULL(pointerArray, "null pointers");
+	RETURN_NULL_AND_THROW_IF_NULL(leakIndexArray, "null leakIndexes");
+
+	if (count <= 0) {
+		return 0;
+	}
+
+	if (count > jenv->GetArrayLength(pointerArray)
+			|| count > jenv->GetArrayLength(leakIndexArray)) {
+		ThrowException(jenv, INDEX_OUT_OF_BOUNDS_EXCEPTION,
+				"count is larger than the arrays");
+		return 0;
+	}
+
+	// no JNI calls are allowed until these are released, and none are needed.
+	jlong *pointers = (jlong *) jenv->GetPrimitiveArrayCritical(pointerArray,
+			NULL);
+	if (NULL == pointers) {
+		ThrowException(jenv, OUT_OF_MEMORY_ERROR, "Failed to pin pointers");
+		return 0;
+	}
+
+	jint *leakIndexes = (jint *) jenv->GetPrimitiveArrayCritical(
+			leakIndexArray, NULL);
+	if (NULL == leakIndexes) {
+		jenv->ReleasePrimitiveArrayCritical(pointerArray, pointers, JNI_ABORT);
+		ThrowException(jenv, OUT_OF_MEMORY_ERROR, "Failed to pin leakIndexes");
+		return 0;
+	}
+
+	jint freed = 0;
+	for (jint i = 0; i < count; i++) {
+		if (0 == pointers[i]) {
+			leakIndexes[i] = -1;
+			continue;
+		}
+
+		leakIndexes[i] = jniContextStruct::release(pointers[i], 52,
+				JNI_TRUE == leaked);
+		freed++;
+	}
+
+	jenv->ReleasePrimitiveArrayCritical(leakIndexArray, leakIndexes, 0);
+	jenv->ReleasePrimitiveArrayCritical(pointerArray, pointers, JNI_ABORT);
+
+	return freed;
+}
+
+/*
+ * Class:     jni_JniContextAccess
+ * Method:    getLeakIndexAddress
+ * Signature: (J)I
+ */
+JNIEXPORT jint
+JNICALL Java_jni_JniContextAccess_getLeakIndexAddress(JNIEnv *jenv,
+		jclass thisClass, jlong pointer) {
+	if (0 == pointer) {
+		return -1;
+	}
+
+	return LeakContext::getLeakContext(pointer)->getLeakIndex();
+}
+
+/*
+ * Class:     jni_JniContextAccess
+ * Method:    getSizeAddress
+ * Signature: (J)J
+ */
+JNIEXPORT jlong
+JNICALL Java_jni_JniContextAccess_getSizeAddress(JNIEnv *jenv,
+		jclass thisClass, jlong pointer) {
+	if (0 == pointer) {
+		return 0;
+	}
+
+	return LeakContext::getLeakContext(pointer)->getSize();
+}
+
+/*
+ * Class:     jni_JniContextAccess
+ * Method:    setLeakCounts
+ * Signature: (Ljava/nio/ByteBuffer;II)V
+ */
+JNIEXPORT void
+JNICALL Java_jni_JniContextAccess_setLeakCounts(JNIEnv *jenv, jclass thisClass,
+		jobject table, jint sites, jint stripes) {
+	RETURN_AND_THROW_IF_NULL(table, "null table");
+
+	jlong *counts = (jlong *) jenv->GetDirectBufferAddress(table);
+	if (NULL == counts) {
+		ThrowException(jenv, ILLEGAL_ARGUMENT_EXCEPTION,
+				"table is not a direct buffer");
+		return;
+	}
+
+	if (stripes <= 0 || 0 != (stripes & (stripes - 1))) {
+		ThrowException(jenv, ILLEGAL_ARGUMENT_EXCEPTION,
+				"stripes must be a power of 2");
+		return;
+	}
+
+	// each stripe is an equal share of the table.
+	jlong stripeLongs = jenv->GetDirectBufferCapacity(table)
+			/ (jlong) sizeof(jlong) / stripes;
+	if (sites < 0 || stripeLongs < (jlong) (sites + 1) * LEAK_COUNT_FIELDS) {
+		ThrowException(jenv, INDEX_OUT_OF_BOUNDS_EXCEPTION,
+				"table is too small for sites");
+		return;
+	}
+
+	// sites and the stripes have to be visible before counts is.
+	LeakCountTable &leakCounts = LeakCountTable::get();
+	leakCounts.sites = sites;
+	leakCounts.stripeMask = stripes - 1;
+	leakCounts.stripeLongs = stripeLongs;
+	__atomic_store_n(&leakCounts.counts, counts, __ATOMIC_RELEASE);
+}
+
+/*
+ * Class:     jni_JniContextAccess
+ * Method:    getPoolStats
+ * Signature: ([J)I
+ */
+JNIEXPORT jint
+JNICALL Java_jni_JniContextAccess_getPoolStats(JNIEnv *jenv, jclass thisClass,
+		jlongArray statsArray) {
+	RETURN_NULL_AND_THROW_IF_NULL(statsArray, "null stats");
+
+	jlong stats[POOL_STAT_COUNT] = { 0, };
+	int len = jniContextPool::getStats(stats, POOL_STAT_COUNT);
+
+	jsize arrayLen = jenv->GetArrayLength(statsArray);
+	if (arrayLen < len) {
+		len = arrayLen;
+	}
+
+	jenv->SetLongArrayRegion(statsArray, 0, len, stats);
+	return len;
+}
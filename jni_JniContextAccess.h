@@ -17,21 +17,29 @@ extern "C" {
 JNIEXPORT jobject JNICALL Java_jni_JniContextAccess_createContext
   (JNIEnv *, jclass, jint);
 
+/*
+ * Class:     jni_JniContextAccess
+ * Method:    createContextAddress
+ * Signature: (I)J
+ */
+JNIEXPORT jlong JNICALL Java_jni_JniContextAccess_createContextAddress
+  (JNIEnv *, jclass, jint);
+
 /*
  * Class:     jni_JniContextAccess
  * Method:    execute
- * Signature: (Ljni/JniContext;)Ljava/lang/String;
+ * Signature: (Ljava/lang/Object;Ljni/JniContext;)Ljava/lang/String;
  */
 JNIEXPORT jstring JNICALL Java_jni_JniContextAccess_execute
-  (JNIEnv *, jclass, jobject);
+  (JNIEnv *, jclass, jobject, jobject);
 
 /*
  * Class:     jni_JniContextAccess
  * Method:    release
- * Signature: (Lyjava/jni/cleaner/Pointer;)I
+ * Signature: (Lyjava/jni/cleaner/Pointer;Z)I
  */
 JNIEXPORT jint JNICALL Java_jni_JniContextAccess_release
-  (JNIEnv *, jclass, jobject);
+  (JNIEnv *, jclass, jobject, jboolean);
 
 /*
  * Class:     jni_JniContextAccess
@@ -41,6 +49,86 @@ JNIEXPORT jint JNICALL Java_jni_JniContextAccess_release
 JNIEXPORT jint JNICALL Java_jni_JniContextAccess_getLeakIndex
   (JNIEnv *, jclass, jobject);
 
+/*
+ * Class:     jni_JniContextAccess
+ * Method:    executeAddress
+ * Signature: (Ljava/lang/Object;J)Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL Java_jni_JniContextAccess_executeAddress
+  (JNIEnv *, jclass, jobject, jlong);
+
+/*
+ * Class:     jni_JniContextAccess
+ * Method:    executeToBuffer
+ * Signature: (Ljava/lang/Object;JLjava/nio/ByteBuffer;II)I
+ */
+JNIEXPORT jint JNICALL Java_jni_JniContextAccess_executeToBuffer
+  (JNIEnv *, jclass, jobject, jlong, jobject, jint, jint);
+
+/*
+ * Class:     jni_JniContextAccess
+ * Method:    executeToAddress
+ * Signature: (Ljava/lang/Object;JJI)I
+ */
+JNIEXPORT jint JNICALL Java_jni_JniContextAccess_executeToAddress
+  (JNIEnv *, jclass, jobject, jlong, jlong, jint);
+
+/*
+ * Class:     jni_JniContextAccess
+ * Method:    getMessageView
+ * Signature: (Ljava/lang/Object;J)Ljava/nio/ByteBuffer;
+ */
+JNIEXPORT jobject JNICALL Java_jni_JniContextAccess_getMessageView
+  (JNIEnv *, jclass, jobject, jlong);
+
+/*
+ * Class:     jni_JniContextAccess
+ * Method:    releaseAddress
+ * Signature: (JZ)I
+ */
+JNIEXPORT jint JNICALL Java_jni_JniContextAccess_releaseAddress
+  (JNIEnv *, jclass, jlong, jboolean);
+
+/*
+ * Class:     jni_JniContextAccess
+ * Method:    releaseAll
+ * Signature: ([JI[IZ)I
+ */
+JNIEXPORT jint JNICALL Java_jni_JniContextAccess_releaseAll
+  (JNIEnv *, jclass, jlongArray, jint, jintArray, jboolean);
+
+/*
+ * Class:     jni_JniContextAccess
+ * Method:    getLeakIndexAddress
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL Java_jni_JniContextAccess_getLeakIndexAddress
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     jni_JniContextAccess
+ * Method:    getSizeAddress
+ * Signature: (J)J
+ */
+JNIEXPORT jlong JNICALL Java_jni_JniContextAccess_getSizeAddress
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     jni_JniContextAccess
+ * Method:    setLeakCounts
+ * Signature: (Ljava/nio/ByteBuffer;II)V
+ */
+JNIEXPORT void JNICALL Java_jni_JniContextAccess_setLeakCounts
+  (JNIEnv *, jclass, jobject, jint, jint);
+
+/*
+ * Class:     jni_JniContextAccess
+ * Method:    getPoolStats
+ * Signature: ([J)I
+ */
+JNIEXPORT jint JNICALL Java_jni_JniContextAccess_getPoolStats
+  (JNIEnv *, jclass, jlongArray);
+
 #ifdef __cplusplus
 }
 #endif
@@ -10,7 +10,9 @@
 /* Note that method IDs are cached in static local variables.  This is susceptible to
  race conditions, but that's OK because the operations are idempotent.  Note also that
  global references are created for the classes that created the method IDs.  This keeps the
- classes from getting unloaded which would invalidate the cached method IDs. */
+ classes from getting unloaded which would invalidate the cached method IDs.
+ To avoid the race, and the check on every call, resolve them from JNI_OnLoad (see JniOnLoad.cpp)
+ and use the variables directly after that. */
 
 /**
  * Help for using the #defines
@@ -293,6 +295,40 @@ DECLARE_CACHED_CLASS(stringClass, "java/lang/String")
 #define UNKNOWN_HOST_EXCEPTION "java/net/UnknownHostException"
 #define UNSUPPORTED_ENCODING_EXCEPTION "java/io/UnsupportedEncodingException"
 #define CLASS_CAST_EXCEPTION "java/lang/ClassCastException"
+#define ILLEGAL_STATE_EXCEPTION "java/lang/IllegalStateException"
+
+/**
+ * The exception classes ThrowException can throw without a FindClass.
+ * JNI_OnLoad resolves each of these into cachedExceptionClasses, at the same index.
+ */
+static const char * const cachedExceptionNames[] = { OUT_OF_MEMORY_ERROR,
+        IO_EXCEPTION, RUNTIME_EXCEPTION, INDEX_OUT_OF_BOUNDS_EXCEPTION,
+        ARITHMETIC_EXCEPTION, ILLEGAL_ARGUMENT_EXCEPTION,
+        NULL_POINTER_EXCEPTION, UNKNOWN_HOST_EXCEPTION,
+        UNSUPPORTED_ENCODING_EXCEPTION, CLASS_CAST_EXCEPTION,
+        ILLEGAL_STATE_EXCEPTION };
+
+#define CACHED_EXCEPTION_COUNT (sizeof(cachedExceptionNames) / sizeof(cachedExceptionNames[0]))
+
+/** Global refs, filled in by JNI_OnLoad in JniOnLoad.cpp. */
+extern jclass cachedExceptionClasses[];
+
+/**
+ * @return the global ref from JNI_OnLoad if there is one, otherwise a local ref from FindClass.
+ */
+static jclass findExceptionClass(JNIEnv *jenv, const char *exceptionClass) {
+    for (size_t i = 0; i < CACHED_EXCEPTION_COUNT; i++) {
+        if (cachedExceptionNames[i] == exceptionClass
+                || 0 == strcmp(cachedExceptionNames[i], exceptionClass)) {
+            if (0 != cachedExceptionClasses[i]) {
+                return cachedExceptionClasses[i];
+            }
+            break;
+        }
+    }
+
+    return jenv->FindClass(exceptionClass);
+}
 
 static void ThrowException(JNIEnv *jenv, const char *exceptionClass,
         const char *message) {
@@ -304,7 +340,7 @@ static void ThrowException(JNIEnv *jenv, const char *exceptionClass,
 
     jenv->ExceptionClear();
 
-    clazz = jenv->FindClass(exceptionClass);
+    clazz = findExceptionClass(jenv, exceptionClass);
 
     if (0 == clazz) {
         fprintf(stderr, "Error, cannot find exception class: %s",
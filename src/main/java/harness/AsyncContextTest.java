@@ -0,0 +1,34 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package harness;
+
+import java.util.concurrent.CountDownLatch;
+
+import jni.JniContext;
+
+/**
+ * Like ClosingContextTest, but create, execute and close are each handed to the JNI worker pool and waited on, so the
+ * client thread never makes a native call itself.
+ */
+public class AsyncContextTest extends RunContextTest {
+
+    public AsyncContextTest(CountDownLatch latch, int loops) {
+        super(latch, loops);
+    }
+
+    @Override
+    protected String execute() throws Exception {
+        JniContext context = JniContext.createAsync().get();
+        try {
+            return context.executeAsync().get();
+        } finally {
+            context.closeAsync().get();
+        }
+    }
+
+    @Override
+    public RunContextTest create(CountDownLatch latch, int loops) {
+        return new AsyncContextTest(latch, loops);
+    }
+
+}
@@ -0,0 +1,65 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package harness;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+
+import jni.JniContext;
+
+/**
+ * Like ClosingContextTest, but the result is copied into a reused direct buffer, so nothing is allocated unless it
+ * doesn't match.
+ * 
+ * The first loop also checks that a read-only direct buffer is refused before native can write into it.
+ */
+public class BufferContextTest extends RunContextTest {
+    private static final ByteBuffer EXPECTED = ByteBuffer.wrap(Utils.data.getBytes(StandardCharsets.UTF_8));
+
+    private final ByteBuffer out = ByteBuffer.allocateDirect(1024);
+    private final ByteBuffer readOnly = ByteBuffer.allocateDirect(1024).asReadOnlyBuffer();
+    private boolean checkedReadOnly;
+
+    public BufferContextTest(CountDownLatch latch, int loops) {
+        super(latch, loops);
+    }
+
+    @Override
+    protected String execute() throws Exception {
+        out.clear();
+        try (JniContext context = JniContext.create();) {
+            if (!checkedReadOnly) {
+                checkedReadOnly = true;
+                if (!refusesReadOnly(context)) {
+                    return "execute wrote into a read-only buffer";
+                }
+            }
+
+            context.execute(out);
+        }
+
+        out.flip();
+        if (EXPECTED.equals(out)) {
+            return Utils.data;
+        }
+
+        return StandardCharsets.UTF_8.decode(out).toString();
+    }
+
+    private boolean refusesReadOnly(JniContext context) {
+        try {
+            context.execute(readOnly);
+            return false;
+        } catch (ReadOnlyBufferException e) {
+            return 0 == readOnly.position();
+        }
+    }
+
+    @Override
+    public RunContextTest create(CountDownLatch latch, int loops) {
+        return new BufferContextTest(latch, loops);
+    }
+
+}
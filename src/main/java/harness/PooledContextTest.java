@@ -0,0 +1,31 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package harness;
+
+import java.util.concurrent.CountDownLatch;
+
+import jni.JniContextPool;
+
+/**
+ * Like ClosingContextTest, but the context is leased from a pool instead of created and freed each time.
+ */
+public class PooledContextTest extends RunContextTest {
+    static final JniContextPool POOL = new JniContextPool("JniContext");
+
+    public PooledContextTest(CountDownLatch latch, int loops) {
+        super(latch, loops);
+    }
+
+    @Override
+    protected String execute() throws Exception {
+        try (JniContextPool.Lease lease = POOL.lease();) {
+            return lease.execute();
+        }
+    }
+
+    @Override
+    public RunContextTest create(CountDownLatch latch, int loops) {
+        return new PooledContextTest(latch, loops);
+    }
+
+}
@@ -3,6 +3,8 @@
 package harness;
 
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class TestContextLeaks {
     public static void main(String[] args) throws Exception {
@@ -19,6 +21,7 @@ public class TestContextLeaks {
         }
 
         int threadCount = Integer.parseInt(args[1]);
+        boolean virtual = false;
 
         RunContextTest r = null;
         switch (args[0]) {
@@ -33,15 +36,42 @@ public class TestContextLeaks {
             case "dbl":
                 r = new DoubleCloseContextTest(null, 0);
                 break;
-        }
 
-        jni.JniContext.create();
+            case "buf":
+                r = new BufferContextTest(null, 0);
+                break;
+
+            case "pool":
+                r = new PooledContextTest(null, 0);
+                break;
+
+            case "async":
+                r = new AsyncContextTest(null, 0);
+                break;
+
+            case "vthread":
+                r = new AsyncContextTest(null, 0);
+                virtual = true;
+                break;
+        }
 
         Thread[] threads = new Thread[threadCount];
 
         int loops = Integer.parseInt(args[2]);
         CountDownLatch latch = new CountDownLatch(threadCount);
 
+        if (virtual) {
+            // one client per virtual thread, there are too many for platform threads.
+            ExecutorService clients = newVirtualThreadPerTaskExecutor();
+            for (int i = 0; i < threadCount; i++) {
+                clients.execute(r.create(latch, loops));
+            }
+
+            latch.await();
+            clients.shutdown();
+            return;
+        }
+
         for (int i = 0; i < threads.length; i++) {
             threads[i] = new Thread(r.create(latch, loops), "t[" + i + "]");
             threads[i].setDaemon(false);
@@ -58,4 +88,17 @@ public class TestContextLeaks {
         }
     }
 
+    /**
+     * This builds for 8, so find Executors.newVirtualThreadPerTaskExecutor by reflection, and fall back to a fixed pool
+     * of platform threads before 21.
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("No virtual threads, running clients on 256 platform threads");
+            return Executors.newFixedThreadPool(256);
+        }
+    }
+
 }
@@ -0,0 +1,60 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package jni;
+
+import yjava.jni.cleaner.AddressArena;
+import yjava.jni.cleaner.CheckedCloseable;
+
+/**
+ * Makes JniContexts that are all freed together, for batch jobs that make thousands of them per unit of work.
+ * 
+ * Contexts from an arena skip the per context Cleaner, and close() frees all of them with one JNI call per batch.
+ * Closing a context on its own still frees it straight away. Only the arena has a Cleaner, which frees anything left if
+ * the arena and all of its contexts are lost without being closed.
+ * 
+ * <pre>
+ * try (JniArena arena = new JniArena()) {
+ *     for (...) {
+ *         arena.create().execute();
+ *     }
+ * }
+ * </pre>
+ * 
+ * @author areese
+ * 
+ */
+public final class JniArena implements CheckedCloseable {
+    private final AddressArena arena = new AddressArena(JniContext.INTERNAL_DEALLOCATOR);
+
+    /**
+     * @return a new context owned by this arena.
+     * @throws IllegalStateException if the arena has been closed.
+     */
+    public JniContext create() {
+        if (arena.isClosed()) {
+            throw new IllegalStateException("Arena has been closed");
+        }
+
+        return JniContext.create(arena);
+    }
+
+    /**
+     * @return the number of contexts made by this arena, 0 once it is closed.
+     */
+    public int size() {
+        return arena.size();
+    }
+
+    /**
+     * Free every context made by this arena that hasn't been closed on its own.
+     */
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return arena.isClosed();
+    }
+}
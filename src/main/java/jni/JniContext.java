@@ -2,13 +2,23 @@
 /* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
 package jni;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 import yjava.jni.cleaner.AbstractDeallocator;
-import yjava.jni.cleaner.DeallocatingClosedBase;
+import yjava.jni.cleaner.AddressArena;
+import yjava.jni.cleaner.DeallocatingAddressBase;
 import yjava.jni.cleaner.LostReferenceCounter;
+import yjava.jni.cleaner.NativeLeakCounts;
+import yjava.jni.cleaner.NativeMemoryBudget;
 import yjava.jni.cleaner.Pointer;
 import yjava.jni.cleaner.PointerAccess;
 
-public class JniContext extends DeallocatingClosedBase implements PointerAccess {
+public class JniContext extends DeallocatingAddressBase implements PointerAccess {
 
     private static final class JniContextDealloc extends AbstractDeallocator {
         protected JniContextDealloc(LostReferenceCounter counter) {
@@ -26,56 +36,329 @@ public class JniContext extends DeallocatingClosedBase implements PointerAccess
                 return -1;
             }
 
-            int ret = JniContextAccess.release(pointer);
+            int ret;
+            if (VALIDATE_POINTERS) {
+                ret = JniContextAccess.release(pointer, false);
+            } else {
+                ret = JniContextAccess.releaseAddress(pointer.pointer, false);
+            }
             pointer.setPointer(0);
             return ret;
         }
+
+        @Override
+        public int free(long address) {
+            return free(address, false);
+        }
+
+        @Override
+        protected int freeLeaked(long address) {
+            return free(address, true);
+        }
+
+        private int free(long address, boolean leaked) {
+            if (0 == address) {
+                return -1;
+            }
+
+            if (VALIDATE_POINTERS) {
+                return JniContextAccess.release(new Pointer(address), leaked);
+            }
+
+            return JniContextAccess.releaseAddress(address, leaked);
+        }
+
+        @Override
+        protected long sizeOf(long address) {
+            return JniContextAccess.getSizeAddress(address);
+        }
+
+        @Override
+        protected int freeAll(long[] addresses, int count, int[] leakIndexes) {
+            if (VALIDATE_POINTERS) {
+                return super.freeAll(addresses, count, leakIndexes);
+            }
+
+            return JniContextAccess.releaseAll(addresses, count, leakIndexes, false);
+        }
+
+        @Override
+        protected int freeAllLeaked(long[] addresses, int count, int[] leakIndexes) {
+            if (VALIDATE_POINTERS) {
+                return super.freeAllLeaked(addresses, count, leakIndexes);
+            }
+
+            return JniContextAccess.releaseAll(addresses, count, leakIndexes, true);
+        }
     }
 
+    /**
+     * Hand the natives Pointer and JniContext objects to check and pull the C pointer from, instead of the raw long.
+     */
+    static final boolean VALIDATE_POINTERS = Boolean.parseBoolean(System.getProperty("yjava.example.validatePointers",
+                    "false"));
+
     static final LostReferenceCounter LEAK_DETECTOR;
+    static final NativeMemoryBudget NATIVE_BUDGET;
     static {
         boolean enableLeakDetection = LostReferenceCounter.enableLeakDetection("example");
+        boolean enableBudget = NativeMemoryBudget.isEnabled("example");
+
+        NativeLeakCounts counts = null;
+        if (enableLeakDetection || enableBudget) {
+            // native counts creates, frees and their bytes itself, so they don't have to come back through Java.
+            // without leak detection there are no sites, and everything goes in the untracked row.
+            counts = new NativeLeakCounts(enableLeakDetection ? LostReferenceCounter.getMax("example") : 0);
+            JniContextAccess.setLeakCounts(counts.buffer(), counts.sites(), counts.stripes());
+        }
 
         if (enableLeakDetection) {
-            LEAK_DETECTOR = new LostReferenceCounter("example", "JniContext");
+            LEAK_DETECTOR = new LostReferenceCounter("example", "JniContext", counts);
         } else {
             LEAK_DETECTOR = null;
         }
+
+        NATIVE_BUDGET = NativeMemoryBudget.create("example", "JniContext", counts);
     }
 
-    private static final JniContextDealloc INTERNAL_DEALLOCATOR = new JniContextDealloc(LEAK_DETECTOR);
+    static final JniContextDealloc INTERNAL_DEALLOCATOR = new JniContextDealloc(LEAK_DETECTOR);
+    static {
+        INTERNAL_DEALLOCATOR.startReaper("example", "JniContext");
+    }
+
+    static final NativeContextPool NATIVE_POOL = new NativeContextPool("JniContext");
+
+    static void checkBudget() {
+        if (null != NATIVE_BUDGET) {
+            NATIVE_BUDGET.check();
+        }
+    }
 
     static int createLeakIndex() {
         if (null == LEAK_DETECTOR) {
             return -1;
         }
 
-        int index = LEAK_DETECTOR.open(new Throwable());
+        int index = LEAK_DETECTOR.open();
         return index;
     }
 
+    /**
+     * Kept here so getLeakIndex doesn't have to ask native.
+     */
+    private final int leakIndex;
+
     /**
      * @throws IllegalStateException if the pointer is 0
      */
-    private JniContext(final Pointer pointer) {
-        super(pointer, INTERNAL_DEALLOCATOR);
+    private JniContext(final long address, final int leakIndex) {
+        super(address, INTERNAL_DEALLOCATOR);
+        this.leakIndex = leakIndex;
         validate();
+        created(leakIndex);
         // System.err.println("P: " + pointer);
     }
 
+    private JniContext(final long address, final int leakIndex, final AddressArena arena) {
+        super(address, INTERNAL_DEALLOCATOR, arena);
+        this.leakIndex = leakIndex;
+        validate();
+        created(leakIndex);
+    }
+
+    /**
+     * Make a context owned by arena, see {@link JniArena}.
+     */
+    static JniContext create(AddressArena arena) {
+        checkBudget();
+        int leakIndex = JniContext.createLeakIndex();
+        long address = JniContextAccess.createContextAddress(leakIndex);
+        try {
+            return new JniContext(address, leakIndex, arena);
+        } catch (RuntimeException e) {
+            // the arena was closed under us.
+            INTERNAL_DEALLOCATOR.free(address);
+            if (null != LEAK_DETECTOR) {
+                LEAK_DETECTOR.close(leakIndex);
+            }
+            throw e;
+        }
+    }
+
     public static JniContext create() {
+        checkBudget();
         return JniContextAccess.createContext(JniContext.createLeakIndex());
     }
 
+    /**
+     * Close all of these contexts, freeing them in batches with one JNI call each instead of one per context.
+     * 
+     * @param contexts the contexts to close, closed ones are skipped.
+     */
+    public static void closeAll(Collection<JniContext> contexts) {
+        closeInBatches(contexts);
+    }
+
+    /**
+     * For a pool's Cleaner, free this the way a leak would be, on the reaper if there is one.
+     */
+    void reclaim() {
+        closeLeaked();
+    }
+
     public String execute() {
-        return JniContextAccess.execute(this);
+        return execute(this);
+    }
+
+    /**
+     * execute, keeping owner reachable until native returns, for callers like a pool Lease whose Cleaner would take
+     * this context back.
+     */
+    String execute(Object owner) {
+        if (VALIDATE_POINTERS) {
+            // fail here, not with an exception built in native.
+            validate();
+            return JniContextAccess.execute(owner, this);
+        }
+
+        return JniContextAccess.executeAddress(owner, address());
+    }
+
+    /**
+     * Run execute on the shared JNI worker pool, so a virtual thread or event loop waiting on it isn't blocked in
+     * native code.
+     * 
+     * @return the result of execute, or an IllegalStateException if this is closed before it runs.
+     */
+    public CompletableFuture<String> executeAsync() {
+        return executeAsync(JniWorkers.POOL);
+    }
+
+    /**
+     * Run execute on executor.
+     * 
+     * The context is held until the call has run, so it can't be reclaimed while it's queued, but it still has to be
+     * open when it runs.
+     * 
+     * @param executor what makes the native call, it should run on platform threads.
+     * @return the result of execute.
+     */
+    public CompletableFuture<String> executeAsync(Executor executor) {
+        return CompletableFuture.supplyAsync(this::execute, executor);
+    }
+
+    /**
+     * Run create on the shared JNI worker pool, for callers that can't make any native call themselves.
+     * 
+     * With leak detection on, the site is the worker's stack, not the caller's.
+     * 
+     * @return the new context.
+     */
+    public static CompletableFuture<JniContext> createAsync() {
+        return createAsync(JniWorkers.POOL);
+    }
+
+    /**
+     * Run create on executor.
+     * 
+     * @param executor what makes the native call, it should run on platform threads.
+     * @return the new context.
+     */
+    public static CompletableFuture<JniContext> createAsync(Executor executor) {
+        return CompletableFuture.supplyAsync(JniContext::create, executor);
+    }
+
+    /**
+     * Run close on the shared JNI worker pool, the context is closed once the future completes.
+     */
+    public CompletableFuture<Void> closeAsync() {
+        return closeAsync(JniWorkers.POOL);
+    }
+
+    /**
+     * Run close on executor.
+     * 
+     * @param executor what makes the native call, it should run on platform threads.
+     */
+    public CompletableFuture<Void> closeAsync(Executor executor) {
+        return CompletableFuture.runAsync(this::close, executor);
+    }
+
+    /**
+     * Copy the result into a direct buffer, with no heap allocation.
+     * 
+     * The bytes are written at the buffer's position, and the position is moved past them.
+     * 
+     * @param directOut where to write the result, it has to be a direct buffer.
+     * @return the number of bytes written.
+     * @throws IllegalArgumentException if directOut isn't direct.
+     * @throws ReadOnlyBufferException if directOut is read-only, native would write through it regardless.
+     * @throws BufferOverflowException if the result doesn't fit in what's remaining, directOut isn't changed.
+     */
+    public int execute(ByteBuffer directOut) {
+        return execute(this, directOut);
+    }
+
+    /**
+     * execute(ByteBuffer), keeping owner reachable until native returns.
+     */
+    int execute(Object owner, ByteBuffer directOut) {
+        if (!directOut.isDirect()) {
+            throw new IllegalArgumentException("directOut must be a direct ByteBuffer");
+        }
+
+        if (directOut.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+
+        int position = directOut.position();
+        int remaining = directOut.limit() - position;
+        int len = JniContextAccess.executeToBuffer(owner, address(), directOut, position, remaining);
+        if (len > remaining) {
+            throw new BufferOverflowException();
+        }
+
+        directOut.position(position + len);
+        return len;
+    }
+
+    /**
+     * Copy the result to native memory the caller owns.
+     * 
+     * @param addr where to write the result.
+     * @param len how many bytes can be written at addr.
+     * @return the length of the result, if it's more than len nothing was written and the caller needs a bigger space.
+     */
+    public int execute(long addr, int len) {
+        if (0 == addr) {
+            throw new NullPointerException("addr is 0");
+        }
+
+        if (len < 0) {
+            throw new IllegalArgumentException("len must not be negative, not " + len);
+        }
+
+        return JniContextAccess.executeToAddress(this, address(), addr, len);
+    }
+
+    /**
+     * A view of the result in native memory, which can be read over and over without going through JNI.
+     * 
+     * @return a view that fails once this context is closed.
+     */
+    public JniContextView view() {
+        return new JniContextView(this, JniContextAccess.getMessageView(this, address()));
     }
 
     @Override
     public int getLeakIndex() {
         validate();
 
-        return JniContextAccess.getLeakIndex(pointer);
+        if (VALIDATE_POINTERS) {
+            return JniContextAccess.getLeakIndex(getPointer());
+        }
+
+        return leakIndex;
     }
 
 
@@ -2,6 +2,8 @@
 /* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
 package jni;
 
+import java.nio.ByteBuffer;
+
 import yjava.jni.cleaner.Pointer;
 
 public class JniContextAccess {
@@ -11,9 +13,87 @@ public class JniContextAccess {
 
     static final native JniContext createContext(int leakIndex);
 
-    static final native String execute(JniContext context);
+    /**
+     * Like createContext, but only the C pointer is returned, for callers that build the JniContext themselves.
+     */
+    static final native long createContextAddress(int leakIndex);
+
+    /**
+     * owner is kept reachable for the call, the same as for the address versions below.
+     */
+    static final native String execute(Object owner, JniContext context);
 
-    static final native int release(Pointer pointer);
+    /**
+     * @param leaked true if this was never closed, so native counts its bytes as lost.
+     * @return the leak index of the context freed, or -1 if there was nothing to free.
+     */
+    static final native int release(Pointer pointer, boolean leaked);
 
     static final native int getLeakIndex(Pointer pointer);
+
+    /*
+     * These take the C pointer straight from Java, so there are no upcalls to find it. They can't check what they've
+     * been handed, so the Pointer versions above are still used when validatePointers is set.
+     * 
+     * The ones that use the context also take the object that owns the pointer, which native never looks at. That's the
+     * JniContext, or the pool Lease it was called through. A JNI argument stays strongly reachable until the call
+     * returns, so the Cleaner can't free the pointer, or give it back to a pool, while native is using it, even if the
+     * caller never touches the owner again.
+     */
+    static final native String executeAddress(Object owner, long pointer);
+
+    /**
+     * @return the leak index of the context freed, or -1 for a 0 pointer.
+     */
+    static final native int releaseAddress(long pointer, boolean leaked);
+
+    static final native int getLeakIndexAddress(long pointer);
+
+    /**
+     * @return the native bytes the context accounts for.
+     */
+    static final native long getSizeAddress(long pointer);
+
+    /**
+     * Copy the message into a direct buffer, starting at offset.
+     * 
+     * @return the length of the message, if it's more than len nothing was copied.
+     */
+    static final native int executeToBuffer(Object owner, long pointer, ByteBuffer out, int offset, int len);
+
+    /**
+     * Copy the message to out.
+     * 
+     * @return the length of the message, if it's more than len nothing was copied.
+     */
+    static final native int executeToAddress(Object owner, long pointer, long out, int len);
+
+    /**
+     * @return a direct buffer over the context's generation, a native order long, followed by the message.
+     */
+    static final native ByteBuffer getMessageView(Object owner, long pointer);
+
+    /**
+     * Free count contexts in one JNI call.
+     * 
+     * @param pointers the C pointers to free, 0's are skipped.
+     * @param count how many of pointers to free.
+     * @param leakIndexes filled in with the leak index of each pointer, or -1 for the 0's.
+     * @param leaked true if these were never closed.
+     * @return the number of contexts freed.
+     */
+    static final native int releaseAll(long[] pointers, int count, int[] leakIndexes, boolean leaked);
+
+    /**
+     * Have native count allocations, frees and their bytes per leak site into table, split over stripes copies of it,
+     * see NativeLeakCounts.
+     */
+    static final native void setLeakCounts(ByteBuffer table, int sites, int stripes);
+
+    /**
+     * Copy the native context pool counters into stats, see {@link NativeContextPool} for the layout.
+     * 
+     * @return the number of counters copied.
+     */
+    static final native int getPoolStats(long[] stats);
 }
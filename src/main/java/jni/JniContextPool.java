@@ -0,0 +1,585 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package jni;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+
+import yjava.jni.cleaner.CheckedCloseable;
+import yjava.jni.cleaner.CleanerBackends;
+import yjava.jni.cleaner.CleanerCloseable;
+
+/**
+ * Keeps open JniContexts around so a create, execute, close per request becomes a lease and a return.
+ * 
+ * Returned contexts go to the returning thread's own cache first, and to a shared stripe picked by thread when that is
+ * full. A lease looks in the same order before creating a new context. Contexts that would put more than maxIdle in
+ * the shared stripes are closed. A sweeper thread, shared by every pool, closes contexts that sat idle longer than the
+ * TTL, checking every half TTL, and a lease that finds one first closes it then. Both count as evicted. The sweeper
+ * also closes whatever is left in the cache of a thread that has exited.
+ * 
+ * A lease that is never closed is found by the Cleaner, which gives its context back to the pool instead of freeing it.
+ * If the pool won't keep it, it's freed the way a leaked context is, on the reaper if there is one, so the Cleaner's
+ * thread doesn't make the native call.
+ * 
+ * Settings come from yjava.example.poolMaxIdle, yjava.example.poolIdleTtlMs and yjava.example.poolThreadCache.
+ * 
+ * @author areese
+ * 
+ */
+public class JniContextPool implements JniContextPoolMXBean, CheckedCloseable {
+    /**
+     * A pooled context, you must close this to give it back.
+     * 
+     * Don't close the context itself, or hold onto it once the lease is closed.
+     */
+    public static final class Lease implements CleanerCloseable {
+        private final Returner returner;
+
+        Lease(JniContextPool pool, JniContext context) {
+            this.returner = new Returner(pool, context);
+            CleanerBackends.get().register(this, returner);
+        }
+
+        /**
+         * @return the leased context.
+         * @throws IllegalStateException if the lease has been closed.
+         */
+        public JniContext context() {
+            JniContext context = returner.context;
+            if (null == context) {
+                throw new IllegalStateException("Lease has been closed");
+            }
+
+            return context;
+        }
+
+        /**
+         * The lease is handed to native with the context, so it stays reachable for the call. Otherwise the Cleaner
+         * could give the context back, to another thread or to be freed, while native is still using it.
+         */
+        public String execute() {
+            return context().execute(this);
+        }
+
+        public int execute(ByteBuffer directOut) {
+            return context().execute(this, directOut);
+        }
+
+        /**
+         * Give the context back to the pool.
+         */
+        @Override
+        public void close() {
+            JniContext context = returner.take();
+            if (null != context) {
+                returner.pool.giveBack(context, false);
+            }
+        }
+
+        @Override
+        public void validate() {
+            context();
+        }
+
+        @Override
+        public int getLeakIndex() {
+            return context().getLeakIndex();
+        }
+
+        @Override
+        public boolean isClosed() {
+            return null == returner.context;
+        }
+    }
+
+    /**
+     * What the Cleaner runs for a lease, it can't reference the Lease or it would never run.
+     */
+    private static final class Returner implements Runnable {
+        private static final AtomicReferenceFieldUpdater<Returner, JniContext> CONTEXT = AtomicReferenceFieldUpdater
+                        .newUpdater(Returner.class, JniContext.class, "context");
+
+        final JniContextPool pool;
+        volatile JniContext context;
+
+        Returner(JniContextPool pool, JniContext context) {
+            this.pool = pool;
+            this.context = context;
+        }
+
+        JniContext take() {
+            return CONTEXT.getAndSet(this, null);
+        }
+
+        @Override
+        public void run() {
+            JniContext context = take();
+            if (null != context) {
+                pool.reclaimed.increment();
+                // this is the Cleaner's thread, its cache would never be used, and it mustn't make the native call.
+                pool.giveBack(context, true);
+            }
+        }
+    }
+
+    /**
+     * A thread's own idle contexts. Only that thread adds to or takes from the front, the sweeper takes expired ones
+     * from the back, and close takes everything.
+     */
+    private static final class ThreadCache {
+        final ConcurrentLinkedDeque<Idle> idle = new ConcurrentLinkedDeque<>();
+        final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+
+        boolean isOrphaned() {
+            Thread t = owner.get();
+            return null == t || !t.isAlive();
+        }
+    }
+
+    /**
+     * Runs {@link JniContextPool#sweep()} until the pool is closed or collected. It only holds the pool weakly, so the
+     * sweeper is never what keeps a pool alive. The pool's mbean does until close unregisters it, so a pool that is
+     * never closed isn't collected.
+     */
+    private static final class Sweeper implements Runnable {
+        private final WeakReference<JniContextPool> pool;
+        volatile ScheduledFuture<?> future;
+
+        Sweeper(JniContextPool pool) {
+            this.pool = new WeakReference<>(pool);
+        }
+
+        @Override
+        public void run() {
+            JniContextPool p = pool.get();
+            if (null == p || p.closed) {
+                cancel();
+                return;
+            }
+
+            try {
+                p.sweep();
+            } catch (Throwable t) {
+                // keep sweeping, there's nobody to throw to.
+                // if you have log4j, change this.
+            }
+        }
+
+        void cancel() {
+            ScheduledFuture<?> f = future;
+            if (null != f) {
+                f.cancel(false);
+            }
+        }
+    }
+
+    private static final long MIN_SWEEP_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * Tells apart the mbeans of pools that were given the same name.
+     */
+    private static final AtomicInteger MBEAN_IDS = new AtomicInteger();
+
+    private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "JniContextPool-sweeper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final class Idle {
+        final JniContext context;
+        final long since;
+
+        Idle(JniContext context, long since) {
+            this.context = context;
+            this.since = since;
+        }
+    }
+
+    private final String name;
+    private final int maxIdle;
+    private final long ttlNanos;
+    private final int threadCacheSize;
+
+    private final ThreadLocal<ThreadCache> threadCache = new ThreadLocal<ThreadCache>() {
+        @Override
+        protected ThreadCache initialValue() {
+            ThreadCache c = new ThreadCache();
+            caches.add(c);
+            return c;
+        }
+    };
+    /**
+     * Every thread's cache, so the sweeper and close can reach them.
+     */
+    private final ConcurrentLinkedQueue<ThreadCache> caches = new ConcurrentLinkedQueue<>();
+    private final Sweeper sweeper;
+    private final ConcurrentLinkedDeque<Idle>[] stripes;
+    private final int stripeMask;
+    private final AtomicInteger idle = new AtomicInteger();
+    private volatile boolean closed;
+    /**
+     * What the mbean was registered as, or null if it wasn't, so close can unregister it.
+     */
+    private volatile ObjectName mbeanName;
+
+    private final LongAdder threadHits = new LongAdder();
+    private final LongAdder sharedHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder returned = new LongAdder();
+    private final LongAdder reclaimed = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    public JniContextPool(String name) {
+        this(name, Integer.getInteger("yjava.example.poolMaxIdle", 256), Long.getLong("yjava.example.poolIdleTtlMs",
+                        60000L), TimeUnit.MILLISECONDS, Integer.getInteger("yjava.example.poolThreadCache", 4));
+    }
+
+    /**
+     * @param name used for the mbean.
+     * @param maxIdle the most idle contexts to keep in the shared stripes.
+     * @param idleTtl how long a context can be idle before it's closed.
+     * @param unit unit of idleTtl.
+     * @param threadCacheSize how many idle contexts each thread keeps for itself, 0 for none.
+     */
+    @SuppressWarnings("unchecked")
+    public JniContextPool(String name, int maxIdle, long idleTtl, TimeUnit unit, int threadCacheSize) {
+        if (maxIdle < 0 || threadCacheSize < 0 || idleTtl < 0) {
+            throw new IllegalArgumentException("maxIdle, idleTtl and threadCacheSize must not be negative");
+        }
+
+        this.name = name;
+        this.maxIdle = maxIdle;
+        this.ttlNanos = unit.toNanos(idleTtl);
+        this.threadCacheSize = threadCacheSize;
+
+        int count = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+        this.stripes = new ConcurrentLinkedDeque[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new ConcurrentLinkedDeque<>();
+        }
+        this.stripeMask = count - 1;
+
+        long period = Math.max(MIN_SWEEP_NANOS, ttlNanos / 2);
+        this.sweeper = new Sweeper(this);
+        this.sweeper.future = SWEEPER.scheduleAtFixedRate(sweeper, period, period, TimeUnit.NANOSECONDS);
+
+        registerMbean();
+    }
+
+    /**
+     * The platform MBeanServer holds the pool until close unregisters it. If another open pool has the same name, this
+     * one is registered with an id added to the name.
+     */
+    void registerMbean() {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        String base = "yjava.security.ysecure." + name + ":type=JniContextPool";
+
+        try {
+            ObjectName n = new ObjectName(base);
+            try {
+                mbs.registerMBean(this, n);
+            } catch (InstanceAlreadyExistsException e) {
+                n = new ObjectName(base + ",id=" + MBEAN_IDS.incrementAndGet());
+                mbs.registerMBean(this, n);
+            }
+            mbeanName = n;
+        } catch (MalformedObjectNameException | MBeanRegistrationException | NotCompliantMBeanException
+                        | InstanceAlreadyExistsException e) {
+            // if you have log4j, change this.
+        }
+    }
+
+    void unregisterMbean() {
+        ObjectName n = mbeanName;
+        if (null == n) {
+            return;
+        }
+
+        mbeanName = null;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(n);
+        } catch (InstanceNotFoundException | MBeanRegistrationException e) {
+            // ignore;
+        }
+    }
+
+    /**
+     * @return a lease on an idle context, or a new one if there are none.
+     * @throws IllegalStateException if the pool has been closed.
+     */
+    public Lease lease() {
+        if (closed) {
+            throw new IllegalStateException("Pool has been closed");
+        }
+
+        JniContext context = take();
+        if (null == context) {
+            misses.increment();
+            context = JniContext.create();
+        }
+
+        return new Lease(this, context);
+    }
+
+    private JniContext take() {
+        final long now = System.nanoTime();
+
+        ConcurrentLinkedDeque<Idle> local = threadCache.get().idle;
+        Idle i;
+        while (null != (i = local.pollFirst())) {
+            if (usable(i, now)) {
+                threadHits.increment();
+                return i.context;
+            }
+        }
+
+        final int start = stripe();
+        for (int s = 0; s <= stripeMask; s++) {
+            ConcurrentLinkedDeque<Idle> stripe = stripes[(start + s) & stripeMask];
+            while (null != (i = stripe.pollFirst())) {
+                idle.decrementAndGet();
+                if (usable(i, now)) {
+                    sharedHits.increment();
+                    return i.context;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private boolean usable(Idle i, long now) {
+        if (i.context.isClosed()) {
+            return false;
+        }
+
+        if (now - i.since > ttlNanos) {
+            evict(i.context, false);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @param fromCleaner true if this is the Cleaner giving back a lost lease, it only goes to the shared stripes, and
+     *            anything that isn't kept is reclaimed instead of closed.
+     */
+    void giveBack(JniContext context, boolean fromCleaner) {
+        if (context.isClosed()) {
+            // someone closed the context instead of the lease, there's nothing to keep.
+            return;
+        }
+
+        if (closed) {
+            discard(context, fromCleaner);
+            return;
+        }
+
+        returned.increment();
+        final long now = System.nanoTime();
+        final Idle i = new Idle(context, now);
+
+        if (!fromCleaner) {
+            ConcurrentLinkedDeque<Idle> local = threadCache.get().idle;
+            if (local.size() < threadCacheSize) {
+                local.addFirst(i);
+                drainIfClosed(local, false);
+                return;
+            }
+        }
+
+        if (idle.incrementAndGet() > maxIdle) {
+            idle.decrementAndGet();
+            evict(context, fromCleaner);
+            return;
+        }
+
+        ConcurrentLinkedDeque<Idle> stripe = stripes[stripe()];
+        stripe.addFirst(i);
+        drainIfClosed(stripe, true);
+
+        // the oldest is at the end, so expiring them as we go keeps the stripes from holding stale contexts.
+        Idle oldest = stripe.peekLast();
+        if (null != oldest && now - oldest.since > ttlNanos && stripe.removeLastOccurrence(oldest)) {
+            idle.decrementAndGet();
+            evict(oldest.context, fromCleaner);
+        }
+    }
+
+    /**
+     * close may have drained this between our check of closed and adding to it.
+     */
+    private void drainIfClosed(ConcurrentLinkedDeque<Idle> deque, boolean shared) {
+        if (closed) {
+            drain(deque, shared);
+        }
+    }
+
+    private void drain(ConcurrentLinkedDeque<Idle> deque, boolean shared) {
+        Idle i;
+        while (null != (i = deque.pollFirst())) {
+            if (shared) {
+                idle.decrementAndGet();
+            }
+            i.context.close();
+        }
+    }
+
+    private void evict(JniContext context, boolean fromCleaner) {
+        evicted.increment();
+        discard(context, fromCleaner);
+    }
+
+    private void discard(JniContext context, boolean fromCleaner) {
+        if (fromCleaner) {
+            context.reclaim();
+        } else {
+            context.close();
+        }
+    }
+
+    /**
+     * Close everything idle longer than the TTL, and everything cached by threads that have exited.
+     */
+    void sweep() {
+        final long now = System.nanoTime();
+
+        for (ThreadCache c : caches) {
+            if (c.isOrphaned()) {
+                caches.remove(c);
+                Idle i;
+                while (null != (i = c.idle.pollFirst())) {
+                    evict(i.context, false);
+                }
+                continue;
+            }
+
+            expire(c.idle, now, false);
+        }
+
+        for (ConcurrentLinkedDeque<Idle> stripe : stripes) {
+            expire(stripe, now, true);
+        }
+    }
+
+    /**
+     * The oldest are at the back, so stop at the first one that hasn't expired.
+     */
+    private void expire(ConcurrentLinkedDeque<Idle> deque, long now, boolean shared) {
+        Idle oldest;
+        while (null != (oldest = deque.peekLast()) && now - oldest.since > ttlNanos) {
+            if (deque.removeLastOccurrence(oldest)) {
+                if (shared) {
+                    idle.decrementAndGet();
+                }
+                evict(oldest.context, false);
+            }
+        }
+    }
+
+    private int stripe() {
+        return (int) Thread.currentThread().getId() & stripeMask;
+    }
+
+    /**
+     * Close every idle context in the shared stripes and every thread's cache, stop the sweeper, unregister the mbean,
+     * and close anything given back from now on.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        sweeper.cancel();
+        unregisterMbean();
+
+        for (ThreadCache c : caches) {
+            drain(c.idle, false);
+        }
+
+        for (ConcurrentLinkedDeque<Idle> stripe : stripes) {
+            drain(stripe, true);
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public long getHits() {
+        return threadHits.sum() + sharedHits.sum();
+    }
+
+    @Override
+    public long getThreadCacheHits() {
+        return threadHits.sum();
+    }
+
+    @Override
+    public long getSharedHits() {
+        return sharedHits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + misses.sum();
+        return (0 == total) ? 0.0 : (double) hits / total;
+    }
+
+    @Override
+    public long getReturned() {
+        return returned.sum();
+    }
+
+    @Override
+    public long getReclaimed() {
+        return reclaimed.sum();
+    }
+
+    @Override
+    public long getEvicted() {
+        return evicted.sum();
+    }
+
+    @Override
+    public int getIdle() {
+        return idle.get();
+    }
+
+    @Override
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    @Override
+    public long getIdleTtlMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(ttlNanos);
+    }
+}
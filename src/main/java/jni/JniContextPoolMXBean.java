@@ -0,0 +1,63 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package jni;
+
+import javax.management.MXBean;
+
+@MXBean
+public interface JniContextPoolMXBean {
+    /**
+     * @return the number of leases served by an idle context
+     */
+    long getHits();
+
+    /**
+     * @return the number of leases served from the calling thread's own cache
+     */
+    long getThreadCacheHits();
+
+    /**
+     * @return the number of leases served from the shared stripes
+     */
+    long getSharedHits();
+
+    /**
+     * @return the number of leases that had to create a new context
+     */
+    long getMisses();
+
+    /**
+     * @return hits / (hits + misses)
+     */
+    double getHitRate();
+
+    /**
+     * @return the number of contexts given back by closing a lease
+     */
+    long getReturned();
+
+    /**
+     * @return the number of leases that were never closed, whose context the Cleaner gave back to the pool
+     */
+    long getReclaimed();
+
+    /**
+     * @return the number of idle contexts closed because they were idle too long, or there were too many
+     */
+    long getEvicted();
+
+    /**
+     * @return the number of idle contexts in the shared stripes, thread caches aren't counted
+     */
+    int getIdle();
+
+    /**
+     * @return the most idle contexts kept in the shared stripes
+     */
+    int getMaxIdle();
+
+    /**
+     * @return how long a context can sit idle before it's closed, in milliseconds
+     */
+    long getIdleTtlMillis();
+}
@@ -0,0 +1,110 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package jni;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A read only view of a {@link JniContext}'s result, straight over the native memory.
+ * 
+ * The native block the view points at goes back to the pool when the context is closed, and can be handed out again to
+ * another context. The pool never frees that memory, so reading it can't crash, but it could be someone else's data.
+ * So every read checks the context is still open and the block's generation hasn't moved since the view was made,
+ * before and after reading, and throws IllegalStateException if either has changed.
+ * 
+ * The view holds onto its context, so the Cleaner can't reclaim a context out from under a view that's still in use.
+ * 
+ * @author areese
+ * 
+ */
+public final class JniContextView {
+    private static final int GENERATION = 0;
+    private static final int MESSAGE = 8;
+
+    private final JniContext context;
+    private final ByteBuffer block;
+    private final ByteBuffer message;
+    private final long generation;
+    private final int length;
+
+    JniContextView(JniContext context, ByteBuffer block) {
+        this.context = context;
+        this.block = block.order(ByteOrder.nativeOrder());
+        this.generation = this.block.getLong(GENERATION);
+        this.length = block.capacity() - MESSAGE;
+
+        block.position(MESSAGE);
+        this.message = block.slice().asReadOnlyBuffer();
+        block.clear();
+
+        // if it was closed while we were reading the generation, we might have the next one.
+        check();
+    }
+
+    /**
+     * @return the number of bytes in the result.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return true if the context is still open, and reads will succeed.
+     */
+    public boolean isValid() {
+        return !context.isClosed() && generation == block.getLong(GENERATION);
+    }
+
+    /**
+     * @return the byte at index.
+     * @throws IllegalStateException if the context has been closed.
+     */
+    public byte get(int index) {
+        check();
+        byte b = message.get(index);
+        check();
+        return b;
+    }
+
+    /**
+     * Copy len bytes starting at index into dst.
+     * 
+     * @throws IllegalStateException if the context has been closed.
+     */
+    public void get(int index, byte[] dst, int offset, int len) {
+        if (index < 0 || len < 0 || index > length - len) {
+            throw new IndexOutOfBoundsException("index " + index + " len " + len + " length " + length);
+        }
+
+        check();
+        ByteBuffer src = message.duplicate();
+        src.position(index);
+        src.get(dst, offset, len);
+        check();
+    }
+
+    /**
+     * The result as a read only buffer, for handing to code that only takes a ByteBuffer.
+     * 
+     * This is a copy taken between checks like {@link #get(int, byte[], int, int)}, not a view, as nothing could check
+     * reads through a buffer over the native memory once it's been returned.
+     * 
+     * @return a new read only heap buffer holding the result.
+     * @throws IllegalStateException if the context has been closed.
+     */
+    public ByteBuffer buffer() {
+        ByteBuffer copy = ByteBuffer.allocate(length);
+        check();
+        copy.put(message.duplicate());
+        check();
+        copy.flip();
+        return copy.asReadOnlyBuffer();
+    }
+
+    private void check() {
+        if (!isValid()) {
+            throw new IllegalStateException("Context has been released");
+        }
+    }
+}
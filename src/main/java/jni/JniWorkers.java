@@ -0,0 +1,38 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package jni;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The platform threads that make the blocking JNI calls for {@link JniContext#executeAsync()}, and the create and close
+ * that go with it.
+ * 
+ * A virtual thread that makes a native call pins its carrier until the call returns, so handing the call to one of
+ * these lets the caller unmount instead. There's one per core by default, set yjava.example.jniWorkers to change it.
+ * The pool is only started the first time it's used.
+ * 
+ * @author areese
+ * 
+ */
+final class JniWorkers {
+    static final int THREADS = Integer.getInteger("yjava.example.jniWorkers", Runtime.getRuntime()
+                    .availableProcessors());
+
+    static final ExecutorService POOL = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "JniWorker-" + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private JniWorkers() {
+    }
+}
@@ -0,0 +1,105 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package jni;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+
+/**
+ * Publishes the counters from the native pool that JniContextAccess.createContext allocates from.
+ * 
+ * Every read copies the counters out of native, so this is only meant for monitoring.
+ * 
+ * @author areese
+ * 
+ */
+public class NativeContextPool implements NativeContextPoolMXBean {
+    // these match ContextPoolStat in ContextPool.h
+    static final int ACQUIRED = 0;
+    static final int RELEASED = 1;
+    static final int THREAD_HITS = 2;
+    static final int SHARED_HITS = 3;
+    static final int SLABS = 4;
+    static final int BLOCKS = 5;
+    static final int BLOCK_SIZE = 6;
+    static final int STAT_COUNT = 7;
+
+    private final String name;
+
+    public NativeContextPool(String name) {
+        this.name = name;
+        registerMbean();
+    }
+
+    void registerMbean() {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            ObjectName mbeanName = new ObjectName("yjava.security.ysecure." + name + ":type=NativeContextPool");
+            mbs.registerMBean(this, mbeanName);
+        } catch (MalformedObjectNameException | MBeanRegistrationException | NotCompliantMBeanException e) {
+            // if you have log4j, change this.
+        } catch (InstanceAlreadyExistsException e) {
+            // ignore;
+        }
+    }
+
+    long[] getStats() {
+        long[] stats = new long[STAT_COUNT];
+        JniContextAccess.getPoolStats(stats);
+        return stats;
+    }
+
+    @Override
+    public long getAcquired() {
+        return getStats()[ACQUIRED];
+    }
+
+    @Override
+    public long getReleased() {
+        return getStats()[RELEASED];
+    }
+
+    @Override
+    public long getInUse() {
+        long[] stats = getStats();
+        return stats[ACQUIRED] - stats[RELEASED];
+    }
+
+    @Override
+    public long getThreadCacheHits() {
+        return getStats()[THREAD_HITS];
+    }
+
+    @Override
+    public long getSharedHits() {
+        return getStats()[SHARED_HITS];
+    }
+
+    @Override
+    public long getSlabs() {
+        return getStats()[SLABS];
+    }
+
+    @Override
+    public long getBlocks() {
+        return getStats()[BLOCKS];
+    }
+
+    @Override
+    public long getBlockSize() {
+        return getStats()[BLOCK_SIZE];
+    }
+
+    @Override
+    public long getBytesReserved() {
+        long[] stats = getStats();
+        return stats[BLOCKS] * stats[BLOCK_SIZE];
+    }
+}
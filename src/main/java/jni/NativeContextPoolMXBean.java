@@ -0,0 +1,53 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package jni;
+
+import javax.management.MXBean;
+
+@MXBean
+public interface NativeContextPoolMXBean {
+    /**
+     * @return the number of contexts handed out by the pool
+     */
+    long getAcquired();
+
+    /**
+     * @return the number of contexts given back to the pool
+     */
+    long getReleased();
+
+    /**
+     * @return the number of contexts currently in use
+     */
+    long getInUse();
+
+    /**
+     * @return the number of acquires served from the calling thread's own free list
+     */
+    long getThreadCacheHits();
+
+    /**
+     * @return the number of times a thread refilled its free list from the shared list
+     */
+    long getSharedHits();
+
+    /**
+     * @return the number of slabs malloc'd, each one is a miss
+     */
+    long getSlabs();
+
+    /**
+     * @return the number of blocks in all slabs, used or free
+     */
+    long getBlocks();
+
+    /**
+     * @return the size of a block in bytes
+     */
+    long getBlockSize();
+
+    /**
+     * @return the number of bytes held by the pool, slabs are never freed
+     */
+    long getBytesReserved();
+}
@@ -4,6 +4,7 @@ package yjava.jni.cleaner;
 
 public abstract class AbstractDeallocator {
     protected final LostReferenceCounter counter;
+    private volatile NativeReaper reaper;
 
     protected AbstractDeallocator(LostReferenceCounter counter) {
         this.counter = counter;
@@ -26,6 +27,95 @@ public abstract class AbstractDeallocator {
         }
     }
 
+    /**
+     * This is only called from the deallocator to free memory, so it's a leak.
+     * 
+     * If there's a reaper it's queued for the reaper to free, so the Cleaner's thread isn't held up by the free.
+     * 
+     * @param address C pointer to delete.
+     */
+    protected void delete(long address) {
+        if (0 == address) {
+            return;
+        }
+
+        final NativeReaper r = reaper;
+        if (null != r && r.offer(address)) {
+            return;
+        }
+
+        reap(address);
+    }
+
+    /**
+     * {@link #delete(long)} for a batch, whatever the reaper can't take is freed here in one call.
+     * 
+     * @param addresses C pointers to delete, this is overwritten.
+     * @param count how many of addresses to delete.
+     * @param leakIndexes scratch space for the leak indexes, at least count long.
+     */
+    void deleteAll(long[] addresses, int count, int[] leakIndexes) {
+        final NativeReaper r = reaper;
+        int left = count;
+        if (null != r) {
+            left = 0;
+            for (int i = 0; i < count; i++) {
+                if (0 != addresses[i] && !r.offer(addresses[i])) {
+                    addresses[left++] = addresses[i];
+                }
+            }
+        }
+
+        if (left > 0) {
+            reapAll(addresses, left, leakIndexes);
+        }
+    }
+
+    /**
+     * Free a leaked pointer on this thread.
+     * 
+     * @param address C pointer to delete.
+     */
+    void reap(long address) {
+        int leakIndex = freeLeaked(address);
+        if (null != counter) {
+            counter.lost(leakIndex);
+        }
+    }
+
+    /**
+     * Free a batch of leaked pointers on this thread.
+     * 
+     * @param addresses C pointers to delete.
+     * @param count how many of addresses to delete.
+     * @param leakIndexes scratch space for the leak indexes, at least count long.
+     */
+    void reapAll(long[] addresses, int count, int[] leakIndexes) {
+        freeAllLeaked(addresses, count, leakIndexes);
+        if (null != counter) {
+            for (int i = 0; i < count; i++) {
+                counter.lost(leakIndexes[i]);
+            }
+        }
+    }
+
+    /**
+     * Start freeing leaked pointers on reaper threads, if yjava.&lt;packageName&gt;.reaperThreads is more than 0.
+     * 
+     * @param packageName the package to read the reaper properties for.
+     * @param name name for the reaper threads and mbean.
+     */
+    public synchronized void startReaper(String packageName, String name) {
+        if (null != reaper) {
+            return;
+        }
+
+        int threads = NativeReaper.getThreads(packageName);
+        if (threads > 0) {
+            reaper = new NativeReaper(name, this, threads, NativeReaper.getQueueSize(packageName));
+        }
+    }
+
     /**
      * This is called to free a pointer
      * 
@@ -34,6 +124,79 @@ public abstract class AbstractDeallocator {
      */
     protected abstract int free(Pointer p);
 
+    /**
+     * This is called to free a C pointer held as a long, override it to skip wrapping it in a Pointer.
+     * 
+     * @param address C pointer to free.
+     * @return the leak index for the LostReferenceCounter
+     */
+    protected int free(long address) {
+        return free(new Pointer(address));
+    }
+
+    /**
+     * This is called to free a batch of C pointers, override it to free them all in one native call.
+     * 
+     * @param addresses C pointers to free, 0's are skipped.
+     * @param count how many of addresses to free.
+     * @param leakIndexes filled in with the leak index for each address, -1 for the 0's.
+     * @return the number of pointers freed.
+     */
+    protected int freeAll(long[] addresses, int count, int[] leakIndexes) {
+        return freeEach(addresses, count, leakIndexes, false);
+    }
+
+    /**
+     * Free a batch one at a time, with {@link #freeLeaked(long)} if leaked is set or {@link #free(long)} if not.
+     * 
+     * @return the number of pointers freed.
+     */
+    private int freeEach(long[] addresses, int count, int[] leakIndexes, boolean leaked) {
+        int freed = 0;
+        for (int i = 0; i < count; i++) {
+            if (0 == addresses[i]) {
+                leakIndexes[i] = -1;
+                continue;
+            }
+
+            leakIndexes[i] = leaked ? freeLeaked(addresses[i]) : free(addresses[i]);
+            freed++;
+        }
+
+        return freed;
+    }
+
+    /**
+     * This is called to free a C pointer that was never closed, override it if native keeps count of what leaked.
+     * 
+     * @param address C pointer to free.
+     * @return the leak index for the LostReferenceCounter
+     */
+    protected int freeLeaked(long address) {
+        return free(address);
+    }
+
+    /**
+     * freeAll for C pointers that were never closed, this calls {@link #freeLeaked(long)} for each one, override it
+     * to free them all in one native call.
+     * 
+     * @see #freeAll(long[], int, int[])
+     */
+    protected int freeAllLeaked(long[] addresses, int count, int[] leakIndexes) {
+        return freeEach(addresses, count, leakIndexes, true);
+    }
+
+    /**
+     * This is only asked for when lifecycle events are being recorded, override it to report the native bytes behind
+     * address.
+     * 
+     * @param address C pointer that hasn't been freed.
+     * @return the native bytes, or 0 if they aren't known.
+     */
+    protected long sizeOf(long address) {
+        return 0;
+    }
+
     public LostReferenceCounter getLostReferenceCounter() {
         return counter;
     }
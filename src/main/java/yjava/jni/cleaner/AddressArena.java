@@ -0,0 +1,223 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package yjava.jni.cleaner;
+
+/**
+ * Owns the C pointers of many {@link DeallocatingAddressBase} objects, and frees them all at once when it's closed.
+ * 
+ * Objects made with an arena aren't registered with the Cleaner, the arena just keeps their AddressDestructors in an
+ * array. Closing an object on its own still frees it straight away, and the arena skips it. Only the arena is
+ * registered with the Cleaner, and every object made with it holds onto it, so the arena can't be reclaimed while any
+ * of them are still in use. If it is never closed the Cleaner hands everything left to the reaper as lost, or frees it
+ * if there's no reaper.
+ * 
+ * Closing the arena marks every object it frees closed, as if each had been closed itself. The arena keeps the objects
+ * it made until then, even ones closed on their own. Once the arena is closed, using an object made with it throws
+ * IllegalStateException.
+ * 
+ * @author areese
+ * 
+ */
+public final class AddressArena implements CheckedCloseable {
+    /**
+     * What the Cleaner runs, it can't reference the arena.
+     */
+    private static final class Tracked implements Runnable {
+        final AbstractDeallocator deallocator;
+        private AddressDestructor[] destructors = new AddressDestructor[16];
+        private int count;
+        private boolean closed;
+
+        Tracked(AbstractDeallocator deallocator) {
+            this.deallocator = deallocator;
+        }
+
+        synchronized void add(AddressDestructor destructor) {
+            if (closed) {
+                throw new IllegalStateException("Arena has been closed");
+            }
+
+            if (count == destructors.length) {
+                AddressDestructor[] bigger = new AddressDestructor[count << 1];
+                System.arraycopy(destructors, 0, bigger, 0, count);
+                destructors = bigger;
+            }
+
+            destructors[count++] = destructor;
+        }
+
+        synchronized int size() {
+            return count;
+        }
+
+        synchronized boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * @param owners the objects that go with each destructor, for close to mark closed, null from the Cleaner,
+         *            which can't hold them.
+         */
+        void freeAll(boolean leaked, DeallocatingAddressBase[] owners) {
+            final AddressDestructor[] ds;
+            final int n;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+
+                closed = true;
+                ds = destructors;
+                n = count;
+                destructors = null;
+                count = 0;
+            }
+
+            final int size = Math.min(n, NativeReaper.BATCH);
+            final AddressDestructor[] freeing = new AddressDestructor[size];
+            final DeallocatingAddressBase[] closing = new DeallocatingAddressBase[size];
+            final long[] addresses = new long[size];
+            final int[] leakIndexes = new int[size];
+            int batch = 0;
+            for (int i = 0; i < n; i++) {
+                DeallocatingAddressBase owner = (null == owners) ? null : owners[i];
+                if (null != owner && !owner.startClose()) {
+                    // closed, or being closed, on its own, which frees it through its destructor.
+                    continue;
+                }
+
+                // anything closed on its own has already been taken.
+                long address = ds[i].take();
+                if (0 == address) {
+                    if (null != owner) {
+                        owner.markClosed();
+                    }
+                    continue;
+                }
+
+                freeing[batch] = ds[i];
+                closing[batch] = owner;
+                addresses[batch++] = address;
+                if (batch == size) {
+                    free(freeing, closing, addresses, leakIndexes, batch, leaked);
+                    batch = 0;
+                }
+            }
+
+            free(freeing, closing, addresses, leakIndexes, batch, leaked);
+        }
+
+        private void free(AddressDestructor[] freeing, DeallocatingAddressBase[] closing, long[] addresses,
+                        int[] leakIndexes, int batch, boolean leaked) {
+            if (0 == batch) {
+                return;
+            }
+
+            try {
+                free(freeing, addresses, leakIndexes, batch, leaked);
+            } finally {
+                for (int i = 0; i < batch; i++) {
+                    if (null != closing[i]) {
+                        closing[i].markClosed();
+                        closing[i] = null;
+                    }
+                }
+            }
+        }
+
+        private void free(AddressDestructor[] freeing, long[] addresses, int[] leakIndexes, int batch,
+                        boolean leaked) {
+            if (leaked) {
+                for (int i = 0; i < batch; i++) {
+                    freeing[i].leaked();
+                }
+                // this is the Cleaner's thread, so let the reaper do the frees if there is one.
+                deallocator.deleteAll(addresses, batch, leakIndexes);
+                return;
+            }
+
+            deallocator.freeAll(addresses, batch, leakIndexes);
+            LostReferenceCounter counter = deallocator.counter;
+            for (int i = 0; i < batch; i++) {
+                if (null != counter) {
+                    counter.close(leakIndexes[i]);
+                }
+                freeing[i].closed(leakIndexes[i]);
+            }
+        }
+
+        @Override
+        public void run() {
+            freeAll(true, null);
+        }
+    }
+
+    private final Tracked tracked;
+    /**
+     * The object for each of tracked's destructors, at the same index, so close can mark them closed. Tracked can't
+     * hold them, they hold the arena, and once the arena is unreachable nothing can look at them anyway. Guarded by
+     * tracked's lock.
+     */
+    private DeallocatingAddressBase[] owners = new DeallocatingAddressBase[16];
+    private int ownerCount;
+
+    /**
+     * @param deallocator frees the pointers, every object made with this arena has to use the same one.
+     */
+    public AddressArena(AbstractDeallocator deallocator) {
+        if (null == deallocator) {
+            throw new NullPointerException("deallocator is null");
+        }
+
+        this.tracked = new Tracked(deallocator);
+        CleanerBackends.get().register(this, tracked);
+    }
+
+    AddressDestructor track(DeallocatingAddressBase owner, AbstractDeallocator deallocator, long address) {
+        if (deallocator != tracked.deallocator) {
+            throw new IllegalArgumentException("Arena was made for a different deallocator");
+        }
+
+        AddressDestructor destructor = AddressDestructor.create(deallocator, address);
+        synchronized (tracked) {
+            tracked.add(destructor);
+
+            if (ownerCount == owners.length) {
+                DeallocatingAddressBase[] bigger = new DeallocatingAddressBase[ownerCount << 1];
+                System.arraycopy(owners, 0, bigger, 0, ownerCount);
+                owners = bigger;
+            }
+
+            owners[ownerCount++] = owner;
+        }
+        return destructor;
+    }
+
+    /**
+     * @return the number of objects made with this arena, including ones already closed on their own, 0 once it is
+     *         closed.
+     */
+    public int size() {
+        return tracked.size();
+    }
+
+    /**
+     * Free everything made with this arena that hasn't been closed already, and mark it closed.
+     */
+    @Override
+    public void close() {
+        final DeallocatingAddressBase[] os;
+        synchronized (tracked) {
+            os = owners;
+            owners = null;
+            ownerCount = 0;
+        }
+
+        tracked.freeAll(false, os);
+    }
+
+    @Override
+    public boolean isClosed() {
+        return tracked.isClosed();
+    }
+}
@@ -0,0 +1,125 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package yjava.jni.cleaner;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * The whole cleanup action for a {@link DeallocatingAddressBase}, it owns the C pointer as a plain long.
+ * 
+ * Whoever swaps the address to 0 owns it and frees it, so close() and the Cleaner can race and it's still only freed
+ * once. This can't reference the object it cleans up after, or the Cleaner would never run.
+ * 
+ * @author areese
+ * 
+ */
+class AddressDestructor implements Runnable {
+    private static final AtomicLongFieldUpdater<AddressDestructor> ADDRESS = AtomicLongFieldUpdater.newUpdater(
+                    AddressDestructor.class, "address");
+
+    /**
+     * Made instead when {@link LifecycleEvents} are being recorded, or the {@link LostReferenceCounter} is timing
+     * lifetimes, it remembers when the object was made and what the events need to say about it when it's freed.
+     * Objects made before either was on don't have one, and aren't timed.
+     */
+    static final class Traced extends AddressDestructor {
+        private final long createdAt = System.nanoTime();
+        private Class<?> type;
+        private int leakIndex = -1;
+        private long bytes;
+
+        Traced(AbstractDeallocator destructor, long address) {
+            super(destructor, address);
+        }
+
+        @Override
+        void created(Class<?> type, int leakIndex) {
+            this.type = type;
+            this.leakIndex = leakIndex;
+            if (LifecycleEvents.isTracing()) {
+                long a = address;
+                this.bytes = (0 == a) ? 0 : destructor.sizeOf(a);
+                LifecycleEvents.created(type, leakIndex, bytes);
+            }
+        }
+
+        @Override
+        void closed(int leakIndex) {
+            long lifetime = System.nanoTime() - createdAt;
+            LostReferenceCounter counter = destructor.counter;
+            if (null != counter) {
+                counter.closedAfter(leakIndex, lifetime);
+            }
+
+            LifecycleEvents.closed(type, leakIndex, bytes, lifetime);
+        }
+
+        @Override
+        void leaked() {
+            long lifetime = System.nanoTime() - createdAt;
+            LostReferenceCounter counter = destructor.counter;
+            if (null != counter) {
+                counter.reclaimedAfter(leakIndex, lifetime);
+            }
+
+            LifecycleEvents.leaked(type, leakIndex, bytes, lifetime);
+        }
+    }
+
+    final AbstractDeallocator destructor;
+    volatile long address;
+
+    AddressDestructor(AbstractDeallocator destructor, long address) {
+        this.destructor = destructor;
+        this.address = address;
+    }
+
+    static AddressDestructor create(AbstractDeallocator destructor, long address) {
+        LostReferenceCounter counter = destructor.counter;
+        if (LifecycleEvents.isTracing() || (null != counter && counter.isTimingLifetimes())) {
+            return new Traced(destructor, address);
+        }
+
+        return new AddressDestructor(destructor, address);
+    }
+
+    /**
+     * The owner calls this once it knows its leak index.
+     */
+    void created(Class<?> type, int leakIndex) {
+    }
+
+    /**
+     * Called after the address was freed by a close.
+     */
+    void closed(int leakIndex) {
+    }
+
+    /**
+     * Called when the Cleaner takes the address, before it's freed.
+     */
+    void leaked() {
+    }
+
+    /**
+     * @return the address if we now own it, or 0 if someone else already took it.
+     */
+    long take() {
+        if (0 == address) {
+            return 0;
+        }
+
+        return ADDRESS.getAndSet(this, 0);
+    }
+
+    @Override
+    public void run() {
+        long a = take();
+        if (0 == a) {
+            return;
+        }
+
+        leaked();
+        destructor.delete(a);
+    }
+}
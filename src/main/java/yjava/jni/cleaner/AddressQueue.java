@@ -0,0 +1,106 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package yjava.jni.cleaner;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock free, multi producer multi consumer queue of C pointers, with the time each one was queued.
+ *
+ * This is Dmitry Vyukov's bounded queue: every slot has a sequence number that says whose turn it is, so producers and
+ * consumers only CAS the tail or head and never wait on each other. offer never blocks, it fails when the queue is
+ * full.
+ *
+ * @author areese
+ *
+ */
+final class AddressQueue {
+    private final int mask;
+    private final AtomicLongArray sequences;
+    // written before the sequence is published, and read after it is seen, so these don't need to be volatile.
+    private final long[] addresses;
+    private final long[] queuedAt;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity rounded up to a power of 2.
+     */
+    AddressQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        this.addresses = new long[size];
+        this.queuedAt = new long[size];
+
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return how many addresses are waiting, this is racy and only for monitoring.
+     */
+    long size() {
+        return Math.max(0, tail.get() - head.get());
+    }
+
+    /**
+     * @return false if the queue is full.
+     */
+    boolean offer(long address, long now) {
+        long pos = tail.get();
+        for (;;) {
+            int i = (int) pos & mask;
+            long diff = sequences.get(i) - pos;
+            if (0 == diff) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    addresses[i] = address;
+                    queuedAt[i] = now;
+                    sequences.lazySet(i, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Take up to max addresses.
+     *
+     * @return the number of addresses copied into to and their queue times into times.
+     */
+    int drain(long[] to, long[] times, int max) {
+        int n = 0;
+        long pos = head.get();
+        while (n < max) {
+            int i = (int) pos & mask;
+            long diff = sequences.get(i) - (pos + 1);
+            if (0 == diff) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    to[n] = addresses[i];
+                    times[n] = queuedAt[i];
+                    n++;
+                    sequences.lazySet(i, pos + mask + 1);
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                // empty
+                break;
+            } else {
+                pos = head.get();
+            }
+        }
+
+        return n;
+    }
+}
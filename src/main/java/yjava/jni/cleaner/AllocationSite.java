@@ -0,0 +1,125 @@
+/* Copyright 2015 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package yjava.jni.cleaner;
+
+import java.util.Arrays;
+
+/**
+ * A compact key for the place an object was opened from.
+ *
+ * The key is the raw stack frames and a hash of them, nothing is turned into a String until someone asks for the
+ * stacks via {@link LostReferenceCounter#openStacks()} and friends. Two sites are only compared frame by frame when
+ * their hashes collide.
+ *
+ * @author areese
+ *
+ */
+final class AllocationSite {
+    static final AllocationSite EMPTY = new AllocationSite(new StackTraceElement[0]);
+
+    private static final String CLEANER_PACKAGE = packageOf(AllocationSite.class.getName());
+
+    private final StackTraceElement[] frames;
+    private final int hash;
+    private volatile String formatted;
+
+    AllocationSite(StackTraceElement[] frames) {
+        this.frames = frames;
+        this.hash = Arrays.hashCode(frames);
+    }
+
+    /**
+     * The site for a stack from open, without its leading frames from this package, and then from the wrapper class
+     * that called into it and its nested classes, like JniContext's create and constructors. Only that class is
+     * stripped, anything else in its package, like a pool over it, is someone asking for an object. If every frame is
+     * one of those, the stack is kept as it is.
+     */
+    static AllocationSite callerOf(StackTraceElement[] frames) {
+        int i = 0;
+        while (i < frames.length && frames[i].getClassName().startsWith(CLEANER_PACKAGE)) {
+            i++;
+        }
+
+        if (i < frames.length) {
+            String wrapper = outerClassOf(frames[i].getClassName());
+            while (i < frames.length && wrapper.equals(outerClassOf(frames[i].getClassName()))) {
+                i++;
+            }
+        }
+
+        if (0 == i || frames.length == i) {
+            return new AllocationSite(frames);
+        }
+
+        return new AllocationSite(Arrays.copyOfRange(frames, i, frames.length));
+    }
+
+    /**
+     * @return the package of className with the trailing dot, or "" for the default package.
+     */
+    static String packageOf(String className) {
+        return className.substring(0, className.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * @return className without any nested class names, so JniContext$JniContextDealloc is JniContext.
+     */
+    static String outerClassOf(String className) {
+        int nested = className.indexOf('$', className.lastIndexOf('.') + 1);
+        return (nested < 0) ? className : className.substring(0, nested);
+    }
+
+    boolean isEmpty() {
+        return 0 == frames.length;
+    }
+
+    /**
+     * @return the first limit frames, formatted one per String.
+     */
+    String[] frames(int limit) {
+        int n = Math.max(0, Math.min(limit, frames.length));
+        String[] ret = new String[n];
+        for (int i = 0; i < n; i++) {
+            ret[i] = frames[i].toString();
+        }
+
+        return ret;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (!(obj instanceof AllocationSite)) {
+            return false;
+        }
+
+        AllocationSite other = (AllocationSite) obj;
+        return hash == other.hash && Arrays.equals(frames, other.frames);
+    }
+
+    /**
+     * Format the frames the same way printStackTrace does, this is only done once per site and only when asked.
+     */
+    @Override
+    public String toString() {
+        String s = formatted;
+        if (null == s) {
+            StringBuilder sb = new StringBuilder(frames.length * 64);
+            for (StackTraceElement e : frames) {
+                sb.append("\tat ").append(e).append('\n');
+            }
+            s = sb.toString();
+            formatted = s;
+        }
+
+        return s;
+    }
+}
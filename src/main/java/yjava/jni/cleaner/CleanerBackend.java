@@ -0,0 +1,27 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package yjava.jni.cleaner;
+
+/**
+ * Whatever runs the destructor once the object it was registered with is phantom reachable.
+ * 
+ * Use {@link CleanerBackends#get()} to find the one for this JVM.
+ * 
+ * @author areese
+ * 
+ */
+public interface CleanerBackend {
+    /**
+     * Run action once obj is unreachable. action must not reference obj, or it will never run.
+     * 
+     * @param obj the object to watch.
+     * @param action what to run after obj is collected.
+     * @return whatever the backend uses to track the registration, callers only need to hold onto it.
+     */
+    Object register(Object obj, Runnable action);
+
+    /**
+     * @return which Cleaner this is, and how many threads it runs on.
+     */
+    String name();
+}
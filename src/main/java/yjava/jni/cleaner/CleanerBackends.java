@@ -0,0 +1,26 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package yjava.jni.cleaner;
+
+/**
+ * Picks the {@link CleanerBackend} for this JVM.
+ * 
+ * This is the Java 8 version, which always uses sun.misc.Cleaner. The multi-release jar has a Java 9 version under
+ * META-INF/versions/9 that uses java.lang.ref.Cleaner instead.
+ * 
+ * @author areese
+ * 
+ */
+public final class CleanerBackends {
+    private static final CleanerBackend BACKEND = new SunMiscCleanerBackend();
+
+    private CleanerBackends() {
+    }
+
+    /**
+     * @return the backend every DeallocatingClosedBase and DeallocatingAddressBase registers with.
+     */
+    public static CleanerBackend get() {
+        return BACKEND;
+    }
+}
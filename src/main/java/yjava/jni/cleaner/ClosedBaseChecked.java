@@ -2,6 +2,7 @@
 /* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
 package yjava.jni.cleaner;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * This is an abstract class that aids in checking if something has already been closed, and throws an exception if it's
@@ -11,7 +12,17 @@ package yjava.jni.cleaner;
  * 
  */
 public abstract class ClosedBaseChecked implements CheckedCloseable {
-    protected volatile boolean closed = false;
+    protected static final int OPEN = 0;
+    protected static final int CLOSING = 1;
+    protected static final int CLOSED = 2;
+
+    private static final AtomicIntegerFieldUpdater<ClosedBaseChecked> STATE = AtomicIntegerFieldUpdater.newUpdater(
+                    ClosedBaseChecked.class, "state");
+
+    /**
+     * OPEN -&gt; CLOSING -&gt; CLOSED, only the thread that moves it to CLOSING gets to call release.
+     */
+    private volatile int state = OPEN;
 
     public ClosedBaseChecked() {
 
@@ -22,35 +33,66 @@ public abstract class ClosedBaseChecked implements CheckedCloseable {
      * @param closed true if this object starts off closed, false if it starts opened
      */
     public ClosedBaseChecked(boolean closed) {
-        this.closed = closed;
+        this.state = closed ? CLOSED : OPEN;
     }
 
     /**
      * Check if this object is closed possibly throw an IllegalStateException if it is closed.
      * 
-     * @return the closed value
+     * @return true if the object is closed or being closed
      * @throws IllegalStateException if constructed to throw when you try and use a closed object.
      */
     @Override
-    public synchronized boolean isClosed() throws IllegalStateException {
-        return closed;
+    public boolean isClosed() throws IllegalStateException {
+        return OPEN != state;
     }
 
     /**
      * If the object is not already closed, then call the subclasses release function.
+     * 
+     * Only one caller wins the move from OPEN to CLOSING, everyone else returns straight away without taking a lock.
+     * A losing caller is only reported as a double close if the object is already CLOSED. One that lost to a close
+     * still in progress isn't, as a reference counted release may yet leave the object open.
      */
     @Override
-    public synchronized void close() {
-        if (!isClosed()) {
+    public void close() {
+        if (!startClose()) {
+            if (CLOSED == state) {
+                LifecycleEvents.doubleClosed(getClass());
+            }
+            return;
+        }
+
+        boolean closed = false;
+        try {
             // closed needs to be set to the return value from release so
             // reference counted closes.
             closed = release();
             // if (logCloses && logger.isTraceEnabled())
             // logger.trace("Closed " + this.getClass().getCanonicalName()
             // + " with origCptr: " + origCPtr);
+        } finally {
+            // release may have already marked us closed, so only move on from CLOSING.
+            STATE.compareAndSet(this, CLOSING, closed ? CLOSED : OPEN);
         }
     }
 
+    /**
+     * For subclasses that close several objects at once, this is the OPEN to CLOSING step of close().
+     * 
+     * @return true if the caller now owns closing this object, and must call markClosed when it's done.
+     */
+    protected final boolean startClose() {
+        return STATE.compareAndSet(this, OPEN, CLOSING);
+    }
+
+    /**
+     * For subclasses that find out they are closed some other way than release.
+     */
+    protected final void markClosed() {
+        this.state = CLOSED;
+    }
+
     /**
      * The closing class should implement release and return true or false based on if the object is closed.
      * 
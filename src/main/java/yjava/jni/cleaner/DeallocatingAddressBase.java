@@ -0,0 +1,201 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package yjava.jni.cleaner;
+
+import java.util.Collection;
+
+/**
+ * A leaner {@link DeallocatingClosedBase}, for when the native side only needs the C pointer as a long.
+ * 
+ * There's no Pointer and no separate RunnableDestructor, the address lives in the one {@link AddressDestructor} the
+ * Cleaner runs. That's the object, its destructor and the Cleaner per instance, and whichever of close() or the Cleaner
+ * takes the address first frees it.
+ * 
+ * @author areese
+ * 
+ */
+public abstract class DeallocatingAddressBase extends ClosedBaseChecked implements PointerAccess {
+    private static final CleanerBackend CLEANER = CleanerBackends.get();
+
+    private final AddressDestructor destructor;
+    /**
+     * Only held so the arena isn't reclaimed, and this freed, while this is still reachable.
+     */
+    @SuppressWarnings("unused")
+    private final AddressArena arena;
+
+    protected DeallocatingAddressBase(long address, AbstractDeallocator deallocator) {
+        this.destructor = AddressDestructor.create(deallocator, address);
+        this.arena = null;
+        CLEANER.register(this, this.destructor);
+    }
+
+    /**
+     * For objects owned by an arena, which frees them when it's closed instead of each one having a Cleaner.
+     */
+    protected DeallocatingAddressBase(long address, AbstractDeallocator deallocator, AddressArena arena) {
+        if (null == arena) {
+            throw new NullPointerException("arena is null");
+        }
+
+        this.destructor = arena.track(this, deallocator, address);
+        this.arena = arena;
+    }
+
+    /**
+     * Subclasses call this at the end of their constructor, once they know their leak index, for the create event.
+     */
+    protected final void created(int leakIndex) {
+        destructor.created(getClass(), leakIndex);
+    }
+
+    /**
+     * This is only ever called from close(), so it's not leaked.
+     */
+    @Override
+    protected final boolean release() {
+        long address = destructor.take();
+        if (0 != address) {
+            int leakIndex = destructor.destructor.free(address);
+
+            // note this wasn't leaked.
+            LostReferenceCounter counter = destructor.destructor.counter;
+            if (null != counter) {
+                counter.close(leakIndex);
+            }
+            destructor.closed(leakIndex);
+        }
+
+        return true;
+    }
+
+    /**
+     * Close this from the Cleaner action of something that owns it, as if it had leaked.
+     * 
+     * The address goes the same way as a leak of this object would, to the deallocator's reaper if it has one, so the
+     * Cleaner's thread isn't held up by the free.
+     */
+    protected final void closeLeaked() {
+        if (!startClose()) {
+            return;
+        }
+
+        try {
+            destructor.run();
+        } finally {
+            markClosed();
+        }
+    }
+
+    /**
+     * Close all of these, freeing them with as few calls to {@link AbstractDeallocator#freeAll} as possible.
+     * 
+     * Anything already closed is skipped, and objects are batched together as long as they share a deallocator.
+     * 
+     * @param objects the objects to close.
+     */
+    protected static void closeInBatches(Collection<? extends DeallocatingAddressBase> objects) {
+        final int size = Math.min(objects.size(), NativeReaper.BATCH);
+        if (0 == size) {
+            return;
+        }
+
+        final DeallocatingAddressBase[] closing = new DeallocatingAddressBase[size];
+        final long[] addresses = new long[size];
+        final int[] leakIndexes = new int[size];
+        AbstractDeallocator batchDeallocator = null;
+        int count = 0;
+
+        for (DeallocatingAddressBase o : objects) {
+            if (null == o || !o.startClose()) {
+                continue;
+            }
+
+            AbstractDeallocator d = o.destructor.destructor;
+            if (count == size || (count > 0 && d != batchDeallocator)) {
+                freeAll(batchDeallocator, closing, addresses, leakIndexes, count);
+                count = 0;
+            }
+
+            batchDeallocator = d;
+            closing[count] = o;
+            addresses[count] = o.destructor.take();
+            count++;
+        }
+
+        freeAll(batchDeallocator, closing, addresses, leakIndexes, count);
+    }
+
+    private static void freeAll(AbstractDeallocator deallocator, DeallocatingAddressBase[] closing, long[] addresses,
+                    int[] leakIndexes, int count) {
+        if (0 == count) {
+            return;
+        }
+
+        try {
+            deallocator.freeAll(addresses, count, leakIndexes);
+
+            // note these weren't leaked.
+            LostReferenceCounter counter = deallocator.counter;
+            for (int i = 0; i < count; i++) {
+                if (0 != addresses[i]) {
+                    if (null != counter) {
+                        counter.close(leakIndexes[i]);
+                    }
+                    closing[i].destructor.closed(leakIndexes[i]);
+                }
+            }
+        } finally {
+            for (int i = 0; i < count; i++) {
+                closing[i].markClosed();
+                closing[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Throw if the pointer has been released.
+     * 
+     * @throws IllegalStateException if the pointer has already been released.
+     */
+    public void validate() throws IllegalStateException {
+        address();
+    }
+
+    /**
+     * @return the C pointer, read once so a close can't change it between the check and the use.
+     * @throws IllegalStateException if the pointer has already been released.
+     */
+    protected final long address() throws IllegalStateException {
+        long address = destructor.address;
+        if (0 == address) {
+            throw new IllegalStateException("Context has been released");
+        }
+
+        return address;
+    }
+
+    @Override
+    public abstract int getLeakIndex();
+
+    /**
+     * This is a copy made for the natives that want a Pointer, changing it doesn't change this object.
+     */
+    @Override
+    public Pointer getPointer() {
+        return new Pointer(destructor.address);
+    }
+
+    @Override
+    public void erasePointer(int leakIndex) {
+        if (0 != destructor.take()) {
+            LostReferenceCounter counter = destructor.destructor.counter;
+            if (null != counter) {
+                counter.close(leakIndex);
+            }
+            destructor.closed(leakIndex);
+        }
+
+        markClosed();
+    }
+}
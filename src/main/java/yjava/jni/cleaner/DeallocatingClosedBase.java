@@ -2,6 +2,7 @@
 /* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
 package yjava.jni.cleaner;
 
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 
 /**
@@ -16,20 +17,25 @@ package yjava.jni.cleaner;
  * 
  */
 public abstract class DeallocatingClosedBase extends ClosedBaseChecked implements PointerAccess {
+    private static final AtomicReferenceFieldUpdater<DeallocatingClosedBase, Pointer> POINTER =
+                    AtomicReferenceFieldUpdater.newUpdater(DeallocatingClosedBase.class, Pointer.class, "pointer");
+
     protected volatile Pointer pointer;
     protected volatile AbstractDeallocator destructor;
     protected volatile RunnableDestructor runnableDestructor;
-    @SuppressWarnings("restriction")
-    protected volatile sun.misc.Cleaner cleaner;
+    /**
+     * What {@link CleanerBackends#get()} returned when this was registered, a sun.misc.Cleaner or a
+     * java.lang.ref.Cleaner.Cleanable.
+     */
+    protected volatile Object cleaner;
 
-    @SuppressWarnings("restriction")
     protected DeallocatingClosedBase(Pointer pointer, AbstractDeallocator destructor) {
         this.pointer = pointer;
         this.destructor = destructor;
         this.runnableDestructor = new RunnableDestructor(destructor, this.pointer);
 
         if (null != this.runnableDestructor) {
-            this.cleaner = sun.misc.Cleaner.create(this, this.runnableDestructor);
+            this.cleaner = CleanerBackends.get().register(this, this.runnableDestructor);
         } else {
             this.cleaner = null;
         }
@@ -40,11 +46,9 @@ public abstract class DeallocatingClosedBase extends ClosedBaseChecked implement
      */
     @Override
     protected final boolean release() {
-        if (null != pointer) {
-            int leakIndex = release(pointer);
-
-            // pointer is free set it to 0.
-            erasePointer(leakIndex);
+        final Pointer p = pointer;
+        if (null != p) {
+            release(p);
         }
 
         return true;
@@ -56,17 +60,27 @@ public abstract class DeallocatingClosedBase extends ClosedBaseChecked implement
      * @throws IllegalStateException if the pointer has already been released.
      */
     public void validate() throws IllegalStateException {
-        if (null == pointer || 0 == pointer.pointer) {
+        final Pointer p = pointer;
+        if (null == p || 0 == p.pointer) {
             throw new IllegalStateException("Context has been released");
         }
     }
 
 
-    protected synchronized int release(final Pointer pointer) {
-        // call validate here because this should never be called with a pointer
-        // that is 0.
-        validate();
-        int leakIndex = destructor.free(pointer);
+    /**
+     * Free the pointer, unless the Cleaner got to it first.
+     * 
+     * @return the leak index, or -1 if someone else already freed it.
+     */
+    protected int release(final Pointer pointer) {
+        final AbstractDeallocator d = this.destructor;
+        long address = pointer.take();
+        if (0 == address || null == d) {
+            erasePointer(-1);
+            return -1;
+        }
+
+        int leakIndex = d.free(address);
         erasePointer(leakIndex);
         return leakIndex;
     }
@@ -82,24 +96,28 @@ public abstract class DeallocatingClosedBase extends ClosedBaseChecked implement
 
     @Override
     public void erasePointer(int leakIndex) {
-        if (null == this.pointer) {
-            this.closed = true;
+        // only the first caller gets to count the close and clear everything out.
+        final Pointer p = POINTER.getAndSet(this, null);
+        if (null == p) {
+            markClosed();
             return;
         }
 
-        this.pointer.pointer = 0;
-        this.pointer = null;
-        if (null != this.destructor) {
+        p.pointer = 0;
+        final AbstractDeallocator d = this.destructor;
+        if (null != d) {
 
             // note this wasn't leaked.
-            if (null != this.destructor.counter) {
-                this.destructor.counter.close(leakIndex);
+            if (null != d.counter) {
+                d.counter.close(leakIndex);
             }
 
             // ensure the deallocator doesn't think it owns the pointer.
-            this.runnableDestructor.pointer.pointer = 0L;
-            this.runnableDestructor.pointer = null;
-            this.runnableDestructor.destructor = null;
+            final RunnableDestructor rd = this.runnableDestructor;
+            if (null != rd) {
+                rd.pointer = null;
+                rd.destructor = null;
+            }
 
             // releases the deallocator
             this.destructor = null;
@@ -107,7 +125,7 @@ public abstract class DeallocatingClosedBase extends ClosedBaseChecked implement
 
         // release the cleaner
         this.cleaner = null;
-        this.closed = true;
+        markClosed();
     }
 
 }
@@ -0,0 +1,36 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package yjava.jni.cleaner;
+
+/**
+ * Flight Recorder events for the create, close, leak and double close of {@link DeallocatingAddressBase} objects.
+ * 
+ * Custom JFR events need Java 11, so this version does nothing and the JIT removes the calls. The multi-release jar has
+ * the real one for 11 and later.
+ * 
+ * @author areese
+ * 
+ */
+final class LifecycleEvents {
+    private LifecycleEvents() {
+    }
+
+    /**
+     * @return true if a create, close or leak event is enabled, so new objects need a create time and size.
+     */
+    static boolean isTracing() {
+        return false;
+    }
+
+    static void created(Class<?> type, int leakIndex, long bytes) {
+    }
+
+    static void closed(Class<?> type, int leakIndex, long bytes, long lifetimeNanos) {
+    }
+
+    static void leaked(Class<?> type, int leakIndex, long bytes, long lifetimeNanos) {
+    }
+
+    static void doubleClosed(Class<?> type) {
+    }
+}
@@ -0,0 +1,105 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package yjava.jni.cleaner;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed bucket, log linear histogram of durations in nanoseconds, like a small HdrHistogram.
+ * 
+ * Every power of 2 is split into {@link #SUB_COUNT} linear buckets, so a bucket is at most 1/8th of its value wide.
+ * Anything past 2^{@value #MAX_EXPONENT} ns, about 19 hours, goes in the last bucket, the max is still exact. Recording
+ * is an atomic increment, and nothing is allocated after construction.
+ * 
+ * @author areese
+ * 
+ */
+final class LifetimeHistogram {
+    static final int SUB_BITS = 3;
+    static final int SUB_COUNT = 1 << SUB_BITS;
+    static final int MAX_EXPONENT = 46;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    static int bucket(long value) {
+        if (value < SUB_COUNT) {
+            return (int) Math.max(0, value);
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+
+        return ((exponent - SUB_BITS + 1) * SUB_COUNT) + (int) ((value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1));
+    }
+
+    /**
+     * @return the largest value that goes in bucket.
+     */
+    static long highestValue(int bucket) {
+        if (bucket < 2 * SUB_COUNT) {
+            return bucket;
+        }
+
+        int exponent = (bucket / SUB_COUNT) + SUB_BITS - 1;
+        long lowest = (long) (SUB_COUNT + (bucket % SUB_COUNT)) << (exponent - SUB_BITS);
+        return lowest + (1L << (exponent - SUB_BITS)) - 1;
+    }
+
+    void record(long nanos) {
+        counts.incrementAndGet(bucket(nanos));
+
+        long m = max.get();
+        while (nanos > m && !max.compareAndSet(m, nanos)) {
+            m = max.get();
+        }
+    }
+
+    /**
+     * Add this histogram's counts into totals, which has {@link #BUCKETS} entries.
+     * 
+     * @return the number of values added.
+     */
+    long addTo(long[] totals) {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = counts.get(i);
+            totals[i] += c;
+            n += c;
+        }
+
+        return n;
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    /**
+     * @param totals counts from {@link #addTo(long[])}.
+     * @param count the number of values in totals.
+     * @param percentile from 0 to 100.
+     * @param max the largest value recorded, the answer is never more than this.
+     * @return the highest value in the bucket the percentile falls in, or 0 if there are no values.
+     */
+    static long valueAt(long[] totals, long count, double percentile, long max) {
+        if (count <= 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil((percentile / 100.0) * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += totals[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i), max);
+            }
+        }
+
+        return max;
+    }
+}
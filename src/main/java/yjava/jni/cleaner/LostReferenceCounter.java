@@ -2,17 +2,22 @@
 /* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
 package yjava.jni.cleaner;
 
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.PriorityQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.management.InstanceAlreadyExistsException;
 import javax.management.MBeanRegistrationException;
@@ -27,15 +32,45 @@ public class LostReferenceCounter implements LostReferenceCounterMXBean {
 
     private final boolean enabled;
     private final int max;
-    private final AtomicInteger[] openCount;
-    private final AtomicInteger[] closedCount;
-    private final AtomicInteger[] lostCount;
+    // LongAdder stripes the cells per thread, so every thread bumping index 0 doesn't fight over one cache line.
+    private final LongAdder[] openCount;
+    private final LongAdder[] closedCount;
+    private final LongAdder[] lostCount;
 
-    private final Map<String, Integer> stackToIndex;
+    private final Map<AllocationSite, Integer> siteToIndex;
+    /**
+     * The reverse of siteToIndex, so snapshots can walk the sites by index without iterating the map.
+     */
+    private final AtomicReferenceArray<AllocationSite> indexToSite;
+    /**
+     * When every index is taken, a new site takes over the index of the site with the fewest opens, Space-Saving
+     * style. It inherits the counts already there, which are kept in inherited so the error is known, and the index's
+     * generation goes up so snapshots can tell it's a different site.
+     */
+    private final boolean evictSites;
+    /**
+     * How many sites a miss looks at to find one to evict, so a miss costs the same however many sites there are.
+     */
+    static final int EVICT_CANDIDATES = 8;
+    private final AtomicIntegerArray generations;
+    private final AtomicLongArray inherited;
+    private final LongAdder evictions;
     private final AtomicInteger last;
     private final boolean logStacks;
     private final boolean failIfStackIsEmpty;
+    private final int sampleRate;
     private final String name;
+    /**
+     * When this is set, native code counts allocations and frees per site, and only losses are counted here. Open is
+     * allocated - freed, and closed is freed - lost.
+     */
+    private final NativeLeakCounts nativeCounts;
+    /**
+     * Per site histograms of how long things lived before they were closed, or before the Cleaner found them. They are
+     * made the first time a site records one, and these are null unless leakLifetimes is set.
+     */
+    private final AtomicReferenceArray<LifetimeHistogram> closeLifetimes;
+    private final AtomicReferenceArray<LifetimeHistogram> reclaimLifetimes;
 
     public static enum StackTypes {
         Open, //
@@ -44,7 +79,16 @@ public class LostReferenceCounter implements LostReferenceCounterMXBean {
     }
 
     public LostReferenceCounter(String packageName, String name) {
-        this(name, getMax(packageName), enableLeakStackLogging(packageName), failIfStackIsEmpty(packageName));
+        this(packageName, name, null);
+    }
+
+    /**
+     * @param nativeCounts where native code counts allocations and frees, it has to have getMax(packageName) sites.
+     */
+    public LostReferenceCounter(String packageName, String name, NativeLeakCounts nativeCounts) {
+        this(name, getMax(packageName), enableLeakStackLogging(packageName), failIfStackIsEmpty(packageName),
+                        getSampleRate(packageName), nativeCounts, recordLifetimes(packageName),
+                        evictSites(packageName));
     }
 
     LostReferenceCounter(String name, int inMax, boolean logStacks) {
@@ -52,6 +96,20 @@ public class LostReferenceCounter implements LostReferenceCounterMXBean {
     }
 
     LostReferenceCounter(String name, int inMax, boolean logStacks, boolean failIfStackIsEmpty) {
+        this(name, inMax, logStacks, failIfStackIsEmpty, 1);
+    }
+
+    LostReferenceCounter(String name, int inMax, boolean logStacks, boolean failIfStackIsEmpty, int sampleRate) {
+        this(name, inMax, logStacks, failIfStackIsEmpty, sampleRate, null);
+    }
+
+    LostReferenceCounter(String name, int inMax, boolean logStacks, boolean failIfStackIsEmpty, int sampleRate,
+                    NativeLeakCounts nativeCounts) {
+        this(name, inMax, logStacks, failIfStackIsEmpty, sampleRate, nativeCounts, false, false);
+    }
+
+    LostReferenceCounter(String name, int inMax, boolean logStacks, boolean failIfStackIsEmpty, int sampleRate,
+                    NativeLeakCounts nativeCounts, boolean recordLifetimes, boolean evictSites) {
         if (null == name) {
             throw new NullPointerException();
         }
@@ -64,50 +122,82 @@ public class LostReferenceCounter implements LostReferenceCounterMXBean {
         this.max = inMax;
         this.name = name;
 
+        if (null != nativeCounts && nativeCounts.sites() != inMax) {
+            throw new IllegalArgumentException("nativeCounts has " + nativeCounts.sites() + " sites, not " + inMax);
+        }
+
         if (this.max > 0) {
+            this.nativeCounts = nativeCounts;
             this.enabled = true;
             this.logStacks = logStacks;
             this.failIfStackIsEmpty = failIfStackIsEmpty;
-            this.openCount = new AtomicInteger[max];
-            this.closedCount = new AtomicInteger[max];
-            this.lostCount = new AtomicInteger[max];
-            this.stackToIndex = new ConcurrentHashMap<String, Integer>();
+            this.sampleRate = Math.max(1, sampleRate);
+            this.openCount = createCounters(max);
+            this.closedCount = createCounters(max);
+            this.lostCount = createCounters(max);
+            this.closeLifetimes = recordLifetimes ? new AtomicReferenceArray<LifetimeHistogram>(max) : null;
+            this.reclaimLifetimes = recordLifetimes ? new AtomicReferenceArray<LifetimeHistogram>(max) : null;
+            this.siteToIndex = new ConcurrentHashMap<AllocationSite, Integer>();
+            this.indexToSite = new AtomicReferenceArray<AllocationSite>(max);
+            this.evictSites = evictSites && logStacks;
+            this.generations = new AtomicIntegerArray(max);
+            this.inherited = new AtomicLongArray(max);
+            this.evictions = new LongAdder();
             // start at -1 so we are zero-based for incrementAndGet
             this.last = new AtomicInteger(-1);
 
-            if (!logStacks) {
-                this.stackToIndex.put("", Integer.valueOf(0));
+            // opens without a stack, or that weren't sampled, are all counted at the empty site.
+            if (!logStacks || isSampling()) {
+                indexOf(AllocationSite.EMPTY);
             }
 
             registerMbean();
         } else {
             this.enabled = false;
+            this.nativeCounts = null;
             this.openCount = null;
             this.closedCount = null;
             this.lostCount = null;
-            this.stackToIndex = null;
+            this.closeLifetimes = null;
+            this.reclaimLifetimes = null;
+            this.siteToIndex = null;
+            this.indexToSite = null;
+            this.evictSites = false;
+            this.generations = null;
+            this.inherited = null;
+            this.evictions = null;
             this.last = null;
             this.logStacks = false;
             this.failIfStackIsEmpty = false;
+            this.sampleRate = 1;
         }
     }
 
-    LostReferenceCounter(String name, int inMax, boolean logStacks, AtomicInteger[] openCount,
-                    AtomicInteger[] closedCount, AtomicInteger[] lostCount) {
+    LostReferenceCounter(String name, int inMax, boolean logStacks, LongAdder[] openCount, LongAdder[] closedCount,
+                    LongAdder[] lostCount) {
         this.max = inMax;
         this.name = name;
         this.enabled = true;
         this.failIfStackIsEmpty = false;
+        this.sampleRate = 1;
+        this.nativeCounts = null;
         this.logStacks = logStacks;
-        this.openCount = openCount;
-        this.closedCount = closedCount;
-        this.lostCount = lostCount;
-        this.stackToIndex = new ConcurrentHashMap<String, Integer>();
+        this.openCount = fillCounters(openCount);
+        this.closedCount = fillCounters(closedCount);
+        this.lostCount = fillCounters(lostCount);
+        this.closeLifetimes = null;
+        this.reclaimLifetimes = null;
+        this.siteToIndex = new ConcurrentHashMap<AllocationSite, Integer>();
+        this.indexToSite = new AtomicReferenceArray<AllocationSite>(inMax);
+        this.evictSites = false;
+        this.generations = new AtomicIntegerArray(inMax);
+        this.inherited = new AtomicLongArray(inMax);
+        this.evictions = new LongAdder();
         // start at -1 so we are zero-based for incrementAndGet
         this.last = new AtomicInteger(-1);
 
         if (!logStacks) {
-            this.stackToIndex.put("", Integer.valueOf(0));
+            indexOf(AllocationSite.EMPTY);
         }
     }
 
@@ -132,7 +222,51 @@ public class LostReferenceCounter implements LostReferenceCounterMXBean {
     }
 
     /**
-     * Given a stack return the index to store for the deallocation
+     * Return the index to store for the deallocation, only capturing a stack if this open is sampled.
+     * 
+     * Every open is counted, but when leakSampleRate is N only 1 in N opens pays for a Throwable and is tracked by
+     * allocation site, the rest are counted at the empty site.
+     * 
+     * @return index the stack can be retrieved from.
+     */
+    public int open() {
+        if (!enabled) {
+            return -1;
+        }
+
+        if (logStacks && sample()) {
+            return open(new Throwable());
+        }
+
+        return openUnsampled();
+    }
+
+    boolean isSampling() {
+        return logStacks && sampleRate > 1;
+    }
+
+    boolean sample() {
+        return 1 == sampleRate || 0 == ThreadLocalRandom.current().nextInt(sampleRate);
+    }
+
+    int openUnsampled() {
+        int ofs = indexOf(AllocationSite.EMPTY);
+        if (badIndex(ofs)) {
+            return -3;
+        }
+
+        if (null == nativeCounts) {
+            openCount[ofs].increment();
+        }
+        return ofs;
+    }
+
+    /**
+     * Given a stack return the index to store for the deallocation.
+     * 
+     * Only the frames are captured here, they aren't formatted until the stacks are asked for, and no lock is taken.
+     * The site starts at the first frame outside this package and the class that called it, see
+     * {@link AllocationSite#callerOf}.
      * 
      * @param at Throwable of where open was called from.
      * @return index the stack can be retrieved from.
@@ -142,49 +276,181 @@ public class LostReferenceCounter implements LostReferenceCounterMXBean {
             return -1;
         }
 
-        synchronized (this) {
-            Integer index = Integer.valueOf(0);
+        int ofs = 0;
 
-            if (logStacks) {
-                String stack = stackToString(at);
-                if (failIfStackIsEmpty && stack.isEmpty()) {
-                    throw new IllegalStateException("Unable to store empty stack");
-                }
+        if (logStacks) {
+            AllocationSite site = AllocationSite.callerOf(at.getStackTrace());
+            if (failIfStackIsEmpty && site.isEmpty()) {
+                throw new IllegalStateException("Unable to store empty stack");
+            }
 
-                index = stackToIndex.get(stack);
+            ofs = indexOf(site);
+            if (badIndex(ofs)) {
+                return -2;
+            }
+        }
 
-                if (null == index) {
-                    int newInt = last.incrementAndGet();
-                    index = Integer.valueOf(newInt);
-                }
+        if (badIndex(ofs)) {
+            return -3;
+        }
+
+        // count an open, unless native will.
+        if (null == nativeCounts) {
+            openCount[ofs].increment();
+        }
 
-                if (badIndex(index.intValue())) {
-                    return -2;
+        // and cache the losses.
+        return ofs;
+    }
+
+    /**
+     * Look up the index for a site, assigning a new one if we haven't seen it before.
+     * 
+     * @param site the site to look up.
+     * @return the index, which will be max if we've run out of room.
+     */
+    int indexOf(AllocationSite site) {
+        Integer index = siteToIndex.get(site);
+        if (null == index) {
+            // only go through computeIfAbsent on a miss, as it locks the bin even if the key is there.
+            index = siteToIndex.computeIfAbsent(site, k -> {
+                int newInt = newIndex();
+                if (badIndex(newInt)) {
+                    return null;
                 }
 
-                stackToIndex.put(stack, index);
+                indexToSite.set(newInt, k);
+                return Integer.valueOf(newInt);
+            });
+        }
+
+        if (null == index && evictSites) {
+            return evict(site);
+        }
+
+        if (null == index) {
+            return max;
+        }
+
+        return index.intValue();
+    }
+
+    /**
+     * Give site the index of the site with the fewest opens out of a few picked at random. No lock is taken, the swap
+     * in indexToSite decides which thread gets a victim, and a loser picks again.
+     * 
+     * Objects still open from the old site close against the index, so its counts become the new site's, that's the
+     * overestimate Space-Saving accepts to keep the hot sites.
+     * 
+     * @return the index, or max if there was nothing to evict.
+     */
+    int evict(AllocationSite site) {
+        for (int attempt = 0; attempt < 4; attempt++) {
+            int victim = leastOpened();
+            if (badIndex(victim)) {
+                return max;
             }
 
-            if (badIndex(index.intValue())) {
-                return -3;
+            AllocationSite old = indexToSite.get(victim);
+            if (null == old || old.isEmpty()) {
+                continue;
             }
 
-            final int ofs = index.intValue();
-            AtomicInteger counter = openCount[ofs];
-            if (null == counter) {
-                counter = new AtomicInteger(0);
-                openCount[ofs] = counter;
+            Integer boxed = Integer.valueOf(victim);
+            Integer existing = siteToIndex.putIfAbsent(site, boxed);
+            if (null != existing) {
+                // someone else added it first.
+                return existing.intValue();
+            }
 
-                closedCount[ofs] = new AtomicInteger(0);
-                lostCount[ofs] = new AtomicInteger(0);
+            if (!indexToSite.compareAndSet(victim, old, site)) {
+                siteToIndex.remove(site, boxed);
+                continue;
             }
 
-            // count an open
-            counter.incrementAndGet();
+            siteToIndex.remove(old, boxed);
+            inherited.set(victim, opened(victim));
+            generations.incrementAndGet(victim);
+            evictions.increment();
+            return victim;
+        }
 
-            // and cache the losses.
-            return ofs;
+        return max;
+    }
+
+    /**
+     * Rather than keep the sites ordered by opens on every open, this looks at {@link #EVICT_CANDIDATES} random ones.
+     * A hot site only goes if it's the coldest of all of them, so the hot sites still stay.
+     * 
+     * @return the index with the fewest opens of the candidates, leaving out the empty site, or max if there isn't one.
+     */
+    int leastOpened() {
+        int ret = max;
+        long least = Long.MAX_VALUE;
+        int n = getSiteCount();
+        if (n <= 0) {
+            return max;
+        }
+
+        boolean all = n <= EVICT_CANDIDATES;
+        int tries = all ? n : EVICT_CANDIDATES;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int t = 0; t < tries; t++) {
+            int i = all ? t : random.nextInt(n);
+            AllocationSite site = indexToSite.get(i);
+            if (null == site || site.isEmpty()) {
+                continue;
+            }
+
+            long v = opened(i);
+            if (v < least) {
+                least = v;
+                ret = i;
+            }
         }
+
+        return ret;
+    }
+
+    /**
+     * @return every open ever counted at index i, closed, lost or still open.
+     */
+    long opened(int i) {
+        if (null != nativeCounts) {
+            return nativeCounts.allocated(i);
+        }
+
+        return countAt(StackTypes.Open, i) + countAt(StackTypes.Closed, i) + countAt(StackTypes.Lost, i);
+    }
+
+    /**
+     * @return the next free index, or max if they have all been handed out.
+     */
+    int newIndex() {
+        int cur;
+        do {
+            cur = last.get();
+            if (cur + 1 >= max) {
+                // don't keep counting, or last could wrap back around into valid indexes.
+                return max;
+            }
+        } while (!last.compareAndSet(cur, cur + 1));
+
+        return cur + 1;
+    }
+
+    static LongAdder[] createCounters(int max) {
+        return fillCounters(new LongAdder[max]);
+    }
+
+    static LongAdder[] fillCounters(LongAdder[] counters) {
+        for (int i = 0; i < counters.length; i++) {
+            if (null == counters[i]) {
+                counters[i] = new LongAdder();
+            }
+        }
+
+        return counters;
     }
 
     /**
@@ -201,8 +467,10 @@ public class LostReferenceCounter implements LostReferenceCounterMXBean {
             return;
         }
 
-        // count a close
-        closeClose(atIndex);
+        // count a close, native already counted the free.
+        if (null == nativeCounts) {
+            closeClose(atIndex);
+        }
     }
 
     /**
@@ -220,55 +488,234 @@ public class LostReferenceCounter implements LostReferenceCounterMXBean {
         }
 
         // count a close
-        closeLost(atIndex);
+        if (null == nativeCounts) {
+            closeLost(atIndex);
+        } else {
+            lostCount[atIndex].increment();
+        }
+    }
+
+    /**
+     * @return true if objects should note when they were created, so their lifetimes can be recorded.
+     */
+    public boolean isTimingLifetimes() {
+        return null != closeLifetimes;
+    }
+
+    /**
+     * Record how long the object at atIndex was open before it was closed.
+     */
+    public void closedAfter(int atIndex, long lifetimeNanos) {
+        recordLifetime(closeLifetimes, atIndex, lifetimeNanos);
+    }
+
+    /**
+     * Record how long the object at atIndex lived before the Cleaner found it.
+     */
+    public void reclaimedAfter(int atIndex, long lifetimeNanos) {
+        recordLifetime(reclaimLifetimes, atIndex, lifetimeNanos);
+    }
+
+    void recordLifetime(AtomicReferenceArray<LifetimeHistogram> histograms, int atIndex, long lifetimeNanos) {
+        if (null == histograms || badIndex(atIndex)) {
+            return;
+        }
+
+        LifetimeHistogram h = histograms.get(atIndex);
+        if (null == h) {
+            h = new LifetimeHistogram();
+            if (!histograms.compareAndSet(atIndex, null, h)) {
+                h = histograms.get(atIndex);
+            }
+        }
+
+        h.record(lifetimeNanos);
+    }
+
+    /**
+     * Merge every site's histogram, and pick a percentile from it.
+     * 
+     * @param percentile from 0 to 100, or more than 100 for the max.
+     * @return the lifetime in microseconds, or -1 if lifetimes aren't being recorded.
+     */
+    long lifetimeMicros(AtomicReferenceArray<LifetimeHistogram> histograms, double percentile) {
+        if (null == histograms) {
+            return -1;
+        }
+
+        long[] totals = new long[LifetimeHistogram.BUCKETS];
+        long count = 0;
+        long longest = 0;
+        for (int i = 0; i < max; i++) {
+            LifetimeHistogram h = histograms.get(i);
+            if (null != h) {
+                count += h.addTo(totals);
+                longest = Math.max(longest, h.max());
+            }
+        }
+
+        return toMicros(totals, count, percentile, longest);
+    }
+
+    static long toMicros(long[] totals, long count, double percentile, long max) {
+        long nanos = (percentile > 100) ? max : LifetimeHistogram.valueAt(totals, count, percentile, max);
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    @Override
+    public long getCloseLifetimeP50Micros() {
+        return lifetimeMicros(closeLifetimes, 50);
+    }
+
+    @Override
+    public long getCloseLifetimeP99Micros() {
+        return lifetimeMicros(closeLifetimes, 99);
+    }
+
+    @Override
+    public long getCloseLifetimeMaxMicros() {
+        return lifetimeMicros(closeLifetimes, 101);
+    }
+
+    @Override
+    public long getReclaimLifetimeP50Micros() {
+        return lifetimeMicros(reclaimLifetimes, 50);
+    }
+
+    @Override
+    public long getReclaimLifetimeP99Micros() {
+        return lifetimeMicros(reclaimLifetimes, 99);
+    }
+
+    @Override
+    public long getReclaimLifetimeMaxMicros() {
+        return lifetimeMicros(reclaimLifetimes, 101);
+    }
+
+    /**
+     * Add a LIFETIME line for site i to results, if it has recorded any.
+     */
+    void addLifetimes(final int i, final String type, final AtomicReferenceArray<LifetimeHistogram> histograms,
+                    final List<String> results, final String key) {
+        LifetimeHistogram h = histograms.get(i);
+        if (null == h) {
+            return;
+        }
+
+        long[] totals = new long[LifetimeHistogram.BUCKETS];
+        long count = h.addTo(totals);
+        if (0 == count) {
+            return;
+        }
+
+        long max = h.max();
+        results.add("LIFETIME: " + type + ": " + count + " references p50=" + toMicros(totals, count, 50, max)
+                        + "us p99=" + toMicros(totals, count, 99, max) + "us max=" + toMicros(totals, count, 101, max)
+                        + "us at i=" + i + " key=" + key);
     }
 
     @Override
-    public int getOpenCount() {
+    public String[] lifetimeStacks() {
+        if (!enabled || null == closeLifetimes) {
+            return new String[] {"disabled"};
+        }
+
+        List<String> ret = new ArrayList<String>();
+        for (Entry<AllocationSite, Integer> e : siteToIndex.entrySet()) {
+            Integer v = e.getValue();
+            if (null != v) {
+                String key = e.getKey().toString();
+                addLifetimes(v.intValue(), "Closed", closeLifetimes, ret, key);
+                addLifetimes(v.intValue(), "Reclaimed", reclaimLifetimes, ret, key);
+            }
+        }
+
+        return ret.toArray(new String[] {});
+    }
+
+    @Override
+    public long getOpenCount() {
         if (!enabled) {
             return -1;
         }
 
-        int ret = 0;
+        long ret = 0;
         for (int i = 0; i < max; i++) {
-            AtomicInteger ai = openCount[i];
-            if (null != ai) {
-                ret += ai.intValue();
-            }
+            ret += countAt(StackTypes.Open, i);
         }
 
         return ret;
     }
 
     @Override
-    public int getLostCount() {
+    public long getLostCount() {
         if (!enabled) {
             return -1;
         }
 
-        int ret = 0;
+        long ret = 0;
         for (int i = 0; i < max; i++) {
-            AtomicInteger ai = lostCount[i];
-            if (null != ai) {
-                ret += ai.intValue();
-            }
+            ret += countAt(StackTypes.Lost, i);
         }
 
         return ret;
     }
 
     @Override
-    public int getClosedCount() {
+    public long getClosedCount() {
         if (!enabled) {
             return -1;
         }
 
-        int ret = 0;
+        long ret = 0;
         for (int i = 0; i < max; i++) {
-            AtomicInteger ai = closedCount[i];
-            if (null != ai) {
-                ret += ai.intValue();
-            }
+            ret += countAt(StackTypes.Closed, i);
+        }
+
+        return ret;
+    }
+
+    @Override
+    public long getUntrackedOpenCount() {
+        if (!enabled || null == nativeCounts) {
+            return -1;
+        }
+
+        return nativeCounts.untrackedOpen();
+    }
+
+    @Override
+    public long getOpenBytes() {
+        return totalBytes(StackTypes.Open);
+    }
+
+    @Override
+    public long getLostBytes() {
+        return totalBytes(StackTypes.Lost);
+    }
+
+    @Override
+    public long getClosedBytes() {
+        return totalBytes(StackTypes.Closed);
+    }
+
+    @Override
+    public long getUntrackedOpenBytes() {
+        if (!enabled || null == nativeCounts) {
+            return -1;
+        }
+
+        return nativeCounts.untrackedOpenBytes();
+    }
+
+    long totalBytes(StackTypes type) {
+        if (!enabled || null == nativeCounts) {
+            return -1;
+        }
+
+        long ret = 0;
+        for (int i = 0; i < max; i++) {
+            ret += bytesAt(type, i);
         }
 
         return ret;
@@ -287,46 +734,108 @@ public class LostReferenceCounter implements LostReferenceCounterMXBean {
         return false;
     }
 
-    boolean valid(final int i, final AtomicInteger[] from) {
-        if (!badIndex(i) && null != from && i < from.length && null != from[i] && from[i].intValue() > 0) {
-            return true;
+    /**
+     * @return the count of type at index i, from the native table for open and closed if there is one.
+     */
+    long countAt(final StackTypes type, final int i) {
+        if (badIndex(i)) {
+            return 0;
         }
 
-        return false;
+        switch (type) {
+            case Open:
+                if (null != nativeCounts) {
+                    return nativeCounts.allocated(i) - nativeCounts.freed(i);
+                }
+                return openCount[i].sum();
+
+            case Closed:
+                if (null != nativeCounts) {
+                    // lost is counted after the free, so this can be briefly high.
+                    return Math.max(0, nativeCounts.freed(i) - lostCount[i].sum());
+                }
+                return closedCount[i].sum();
+
+            default:
+                return lostCount[i].sum();
+        }
     }
 
-    int addAmount(final int i, final AtomicInteger[] from) {
-        int v = 0;
-        if (valid(i, from)) {
-            v += from[i].intValue();
+    /**
+     * @return the native bytes of type at index i, or 0 if native code isn't counting.
+     */
+    long bytesAt(final StackTypes type, final int i) {
+        if (null == nativeCounts || badIndex(i)) {
+            return 0;
         }
 
-        return v;
+        switch (type) {
+            case Open:
+                return nativeCounts.openBytes(i);
+
+            case Closed:
+                return nativeCounts.closedBytes(i);
+
+            default:
+                return nativeCounts.lostBytes(i);
+        }
+    }
+
+    /**
+     * @return the bytes to add to a REFCOUNT line, if native code is counting them, scaled up like the count when the
+     *         site was sampled.
+     */
+    String bytesSuffix(final StackTypes type, final int i, final boolean sampled) {
+        if (null == nativeCounts) {
+            return "";
+        }
+
+        long b = bytesAt(type, i);
+        if (sampled) {
+            return " (~" + (b * sampleRate) + " estimated bytes, " + b + " sampled)";
+        }
+
+        return " (" + b + " bytes)";
+    }
+
+    long addAmount(final int i, final StackTypes from) {
+        long v = countAt(from, i);
+        return (v > 0) ? v : 0;
     }
 
-    int addAmount(final int i, final String type, List<String> results, final AtomicInteger[] from, final String key) {
-        if (valid(i, from)) {
-            results.add("REFCOUNT: " + type + ": " + from[i].intValue() + " references at i=" + i + " key=" + key);
-            return from[i].intValue();
+    long addAmount(final int i, final String type, List<String> results, final StackTypes from, final String key,
+                    final boolean sampled) {
+        long v = countAt(from, i);
+        if (v > 0) {
+            if (sampled) {
+                // scale the sampled count back up to an estimate of the real number.
+                results.add("REFCOUNT: " + type + ": ~" + (v * sampleRate) + " estimated references (" + v
+                                + " sampled at 1 in " + sampleRate + ")" + bytesSuffix(from, i, true) + " at i=" + i
+                                + " key=" + key);
+            } else {
+                results.add("REFCOUNT: " + type + ": " + v + " references" + bytesSuffix(from, i, false) + " at i=" + i
+                                + " key=" + key);
+            }
+            return v;
         }
 
         return 0;
     }
 
-    int addClosedCount(int i) {
-        return addAmount(i, closedCount);
+    long addClosedCount(int i) {
+        return addAmount(i, StackTypes.Closed);
     }
 
-    int addLostCount(int i, List<String> ret, String key) {
-        return addAmount(i, "Lost", ret, lostCount, key);
+    long addLostCount(int i, List<String> ret, String key, boolean sampled) {
+        return addAmount(i, "Lost", ret, StackTypes.Lost, key, sampled);
     }
 
-    int addOpenCount(int i, List<String> ret, String key) {
-        return addAmount(i, "Open", ret, openCount, key);
+    long addOpenCount(int i, List<String> ret, String key, boolean sampled) {
+        return addAmount(i, "Open", ret, StackTypes.Open, key, sampled);
     }
 
-    int addClosedCount(int i, List<String> ret, String key) {
-        return addAmount(i, "Closed", ret, closedCount, key);
+    long addClosedCount(int i, List<String> ret, String key, boolean sampled) {
+        return addAmount(i, "Closed", ret, StackTypes.Closed, key, sampled);
     }
 
     String[] getCounts(EnumSet<StackTypes> types) {
@@ -334,40 +843,182 @@ public class LostReferenceCounter implements LostReferenceCounterMXBean {
             return new String[] {"disabled"};
         }
 
+        // no lock, the map iterates weakly consistently and the counters are read as they are, a site opened part way
+        // through may or may not show up.
         List<String> ret = new ArrayList<String>(max + 1);
-        synchronized (this) {
-            int totalOpen = 0;
-            int totalLost = 0;
-            int totalClosed = 0;
-            for (Entry<String, Integer> e : stackToIndex.entrySet()) {
-                Integer v = e.getValue();
-                if (null != v) {
-                    int o = v.intValue();
-                    String key = e.getKey();
-
+        long totalOpen = 0;
+        long totalLost = 0;
+        long totalClosed = 0;
+        for (Entry<AllocationSite, Integer> e : siteToIndex.entrySet()) {
+            Integer v = e.getValue();
+            if (null != v) {
+                int o = v.intValue();
+                AllocationSite site = e.getKey();
+
+                if (isSampling() && site.isEmpty()) {
+                    // the unsampled opens only go into the totals, the sites already estimate them.
                     if (types.contains(StackTypes.Lost)) {
-                        totalLost += addLostCount(o, ret, key);
+                        totalLost += addAmount(o, StackTypes.Lost);
                     }
 
                     if (types.contains(StackTypes.Open)) {
-                        totalOpen += addOpenCount(o, ret, key);
-                    }
-
-                    if (types.contains(StackTypes.Closed)) {
-                        addClosedCount(o, ret, key);
+                        totalOpen += addAmount(o, StackTypes.Open);
                     }
 
                     totalClosed += addClosedCount(o);
+                    continue;
+                }
+
+                String key = site.toString();
+                boolean sampled = isSampling();
+
+                if (types.contains(StackTypes.Lost)) {
+                    totalLost += addLostCount(o, ret, key, sampled);
                 }
+
+                if (types.contains(StackTypes.Open)) {
+                    totalOpen += addOpenCount(o, ret, key, sampled);
+                }
+
+                if (types.contains(StackTypes.Closed)) {
+                    addClosedCount(o, ret, key, sampled);
+                }
+
+                totalClosed += addClosedCount(o);
             }
-            ret.add("REFCOUNT: Open: " + totalOpen + "\n");
-            ret.add("REFCOUNT: Lost: " + totalLost + "\n");
-            ret.add("REFCOUNT: Closed: " + totalClosed + "\n");
         }
+        ret.add("REFCOUNT: Open: " + totalOpen + totalBytesSuffix(StackTypes.Open) + "\n");
+        ret.add("REFCOUNT: Lost: " + totalLost + totalBytesSuffix(StackTypes.Lost) + "\n");
+        ret.add("REFCOUNT: Closed: " + totalClosed + totalBytesSuffix(StackTypes.Closed) + "\n");
 
         return ret.toArray(new String[] {});
     }
 
+    String totalBytesSuffix(StackTypes type) {
+        if (null == nativeCounts) {
+            return "";
+        }
+
+        return " (" + totalBytes(type) + " bytes)";
+    }
+
+    @Override
+    public boolean isEvictingSites() {
+        return evictSites;
+    }
+
+    @Override
+    public long getEvictions() {
+        if (!enabled) {
+            return 0;
+        }
+
+        return evictions.sum();
+    }
+
+    @Override
+    public int getSiteCount() {
+        if (!enabled) {
+            return 0;
+        }
+
+        return Math.min(last.get() + 1, max);
+    }
+
+    /**
+     * @return a snapshot of site i with its first frames, or null if it hasn't been handed out.
+     */
+    SiteCounts siteCounts(final int i, final int frames) {
+        AllocationSite site = indexToSite.get(i);
+        if (null == site) {
+            // handed out, but not stored yet.
+            return null;
+        }
+
+        long openBytes = -1;
+        long closedBytes = -1;
+        long lostBytes = -1;
+        if (null != nativeCounts) {
+            openBytes = bytesAt(StackTypes.Open, i);
+            closedBytes = bytesAt(StackTypes.Closed, i);
+            lostBytes = bytesAt(StackTypes.Lost, i);
+        }
+
+        // the opens without a stack are all counted, only the sites with one are sampled.
+        int rate = (isSampling() && !site.isEmpty()) ? sampleRate : 1;
+        return new SiteCounts(i, generations.get(i), inherited.get(i), countAt(StackTypes.Open, i),
+                        countAt(StackTypes.Closed, i), countAt(StackTypes.Lost, i), openBytes, closedBytes, lostBytes,
+                        rate, site.frames(frames));
+    }
+
+    @Override
+    public SiteCounts[] sites(int offset, int limit, int frames) {
+        if (!enabled || offset < 0 || limit <= 0) {
+            return new SiteCounts[0];
+        }
+
+        int end = (int) Math.min((long) offset + limit, getSiteCount());
+        List<SiteCounts> ret = new ArrayList<SiteCounts>(Math.max(0, end - offset));
+        for (int i = offset; i < end; i++) {
+            SiteCounts c = siteCounts(i, frames);
+            if (null != c) {
+                ret.add(c);
+            }
+        }
+
+        return ret.toArray(new SiteCounts[ret.size()]);
+    }
+
+    /**
+     * @return what topSites ranks site i by, one of Open, Closed, Lost, OpenBytes, ClosedBytes or LostBytes.
+     */
+    long rankOf(final String by, final int i) {
+        boolean bytes = by.endsWith("Bytes");
+        StackTypes type = StackTypes.valueOf(bytes ? by.substring(0, by.length() - "Bytes".length()) : by);
+        return bytes ? bytesAt(type, i) : countAt(type, i);
+    }
+
+    @Override
+    public SiteCounts[] topSites(String by, int k, int frames) {
+        if (!enabled || k <= 0) {
+            return new SiteCounts[0];
+        }
+
+        if (null == by) {
+            throw new NullPointerException("by is null");
+        }
+
+        // smallest on top, so it's the one pushed out. each entry is {rank, index}.
+        PriorityQueue<long[]> top = new PriorityQueue<long[]>(Math.min(k, max) + 1,
+                        (a, b) -> Long.compare(a[0], b[0]));
+        int n = getSiteCount();
+        for (int i = 0; i < n; i++) {
+            long rank = rankOf(by, i);
+            if (rank <= 0) {
+                continue;
+            }
+
+            if (top.size() < k) {
+                top.add(new long[] {rank, i});
+            } else if (rank > top.peek()[0]) {
+                top.poll();
+                top.add(new long[] {rank, i});
+            }
+        }
+
+        List<SiteCounts> ret = new ArrayList<SiteCounts>(top.size());
+        while (!top.isEmpty()) {
+            SiteCounts c = siteCounts((int) top.poll()[1], frames);
+            if (null != c) {
+                ret.add(c);
+            }
+        }
+
+        // the queue gave them smallest first.
+        Collections.reverse(ret);
+        return ret.toArray(new SiteCounts[ret.size()]);
+    }
+
     @Override
     public String[] openAndLostStacks() {
         return getCounts(EnumSet.of(StackTypes.Lost, StackTypes.Open));
@@ -393,10 +1044,7 @@ public class LostReferenceCounter implements LostReferenceCounterMXBean {
             return;
         }
 
-        AtomicInteger openCounter = openCount[atIndex];
-        if (null != openCounter) {
-            openCounter.decrementAndGet();
-        }
+        openCount[atIndex].decrement();
     }
 
     void closeClose(int atIndex) {
@@ -405,10 +1053,7 @@ public class LostReferenceCounter implements LostReferenceCounterMXBean {
         }
 
         closeOpen(atIndex);
-        AtomicInteger counter = closedCount[atIndex];
-        if (null != counter) {
-            counter.incrementAndGet();
-        }
+        closedCount[atIndex].increment();
     }
 
     void closeLost(int atIndex) {
@@ -417,41 +1062,7 @@ public class LostReferenceCounter implements LostReferenceCounterMXBean {
         }
 
         closeOpen(atIndex);
-        AtomicInteger counter = lostCount[atIndex];
-        if (null != counter) {
-            counter.incrementAndGet();
-        }
-    }
-
-
-    String stackToString(Throwable at) {
-        return stackToString(at, this.logStacks);
-    }
-
-    static String stackToString(Throwable t, boolean logStacks) {
-        if (!logStacks) {
-            return "";
-        }
-
-        StringWriter sw = null;
-        PrintWriter pw = null;
-        try {
-            sw = new StringWriter();
-            pw = new PrintWriter(sw);
-            t.printStackTrace(pw);
-            return sw.getBuffer().toString();
-        } finally {
-            if (null != pw) {
-                pw.close();
-            }
-            if (null != sw) {
-                try {
-                    sw.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
+        lostCount[atIndex].increment();
     }
 
     @Override
@@ -469,6 +1080,11 @@ public class LostReferenceCounter implements LostReferenceCounterMXBean {
         return max;
     }
 
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
     static String getProperty(String packageName, String appendant, String dv) {
         if (null == packageName) {
             throw new NullPointerException();
@@ -503,6 +1119,21 @@ public class LostReferenceCounter implements LostReferenceCounterMXBean {
         return Boolean.parseBoolean(v);
     }
 
+    public static int getSampleRate(String packageName) {
+        String v = getProperty(packageName, ".leakSampleRate", "1");
+        return Integer.parseInt(v);
+    }
+
+    public static boolean recordLifetimes(String packageName) {
+        String v = getProperty(packageName, ".leakLifetimes", "false");
+        return Boolean.parseBoolean(v);
+    }
+
+    public static boolean evictSites(String packageName) {
+        String v = getProperty(packageName, ".leakEvictSites", "true");
+        return Boolean.parseBoolean(v);
+    }
+
     public static int getMax(String packageName) {
         int max = 0;
         String v = getProperty(packageName, ".leakLogMax", "100");
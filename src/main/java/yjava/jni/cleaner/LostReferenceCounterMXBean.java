@@ -10,17 +10,78 @@ public interface LostReferenceCounterMXBean {
     /**
      * @return the number of open references
      */
-    int getOpenCount();
+    long getOpenCount();
 
     /**
      * @return the number of lost references
      */
-    int getLostCount();
+    long getLostCount();
 
     /**
      * @return the number of closed references
      */
-    int getClosedCount();
+    long getClosedCount();
+
+    /**
+     * @return the number of live native allocations that aren't at any site, or -1 if native code isn't counting
+     */
+    long getUntrackedOpenCount();
+
+    /**
+     * @return the native bytes held by open references, or -1 if native code isn't counting
+     */
+    long getOpenBytes();
+
+    /**
+     * @return the native bytes freed without being closed, or -1 if native code isn't counting
+     */
+    long getLostBytes();
+
+    /**
+     * @return the native bytes freed by close, or -1 if native code isn't counting
+     */
+    long getClosedBytes();
+
+    /**
+     * @return the native bytes held by live allocations that aren't at any site, or -1 if native code isn't counting
+     */
+    long getUntrackedOpenBytes();
+
+    /**
+     * @return true if lifetimes are being recorded, from yjava.&lt;package&gt;.leakLifetimes
+     */
+    boolean isTimingLifetimes();
+
+    /**
+     * @return the median time from create to close, over all sites, or -1 if lifetimes aren't being recorded
+     */
+    long getCloseLifetimeP50Micros();
+
+    /**
+     * @return the 99th percentile time from create to close, or -1 if lifetimes aren't being recorded
+     */
+    long getCloseLifetimeP99Micros();
+
+    /**
+     * @return the longest time from create to close, or -1 if lifetimes aren't being recorded
+     */
+    long getCloseLifetimeMaxMicros();
+
+    /**
+     * @return the median time from create to the Cleaner finding a leak, or -1 if lifetimes aren't being recorded
+     */
+    long getReclaimLifetimeP50Micros();
+
+    /**
+     * @return the 99th percentile time from create to the Cleaner finding a leak, or -1 if lifetimes aren't being
+     *         recorded
+     */
+    long getReclaimLifetimeP99Micros();
+
+    /**
+     * @return the longest time from create to the Cleaner finding a leak, or -1 if lifetimes aren't being recorded
+     */
+    long getReclaimLifetimeMaxMicros();
 
     /**
      * @return the stacks for open and lost references
@@ -37,6 +98,45 @@ public interface LostReferenceCounterMXBean {
      */
     String[] lostStacks();
 
+    /**
+     * @return the close and reclaim lifetime percentiles for each stack
+     */
+    String[] lifetimeStacks();
+
+    /**
+     * @return true if new sites take over the index of the least opened site once they are all used, from
+     *         yjava.&lt;package&gt;.leakEvictSites
+     */
+    boolean isEvictingSites();
+
+    /**
+     * @return how many times a site's index was given to a new site
+     */
+    long getEvictions();
+
+    /**
+     * @return the number of sites handed out so far, for paging through {@link #sites(int, int, int)}
+     */
+    int getSiteCount();
+
+    /**
+     * Page through the sites by index, without blocking anyone opening or closing.
+     * 
+     * @param offset the first site index.
+     * @param limit the most sites to return.
+     * @param frames how many frames of each stack to include.
+     * @return the sites from offset, in index order
+     */
+    SiteCounts[] sites(int offset, int limit, int frames);
+
+    /**
+     * @param by Open, Closed, Lost, OpenBytes, ClosedBytes or LostBytes.
+     * @param k the most sites to return.
+     * @param frames how many frames of each stack to include.
+     * @return the k sites with the most of by, most first, sites with none are left out
+     */
+    SiteCounts[] topSites(String by, int k, int frames);
+
     /**
      * @return name of this leak detector
      */
@@ -52,4 +152,9 @@ public interface LostReferenceCounterMXBean {
      * @return maximum number of stacks that can be tracked.
      */
     int getMax();
+
+    /**
+     * @return 1 in this many opens has its stack tracked, the stack counts are estimates when this is more than 1.
+     */
+    int getSampleRate();
 }
@@ -0,0 +1,171 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package yjava.jni.cleaner;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A table of per leak site counts that native code updates as it allocates and frees, so a create or a close doesn't
+ * need to come back through Java to be counted.
+ * 
+ * The table is a direct buffer of native order longs, a row per site and one more at the end for anything allocated
+ * with an index that isn't a site, like contexts native code made on its own. Each row is {@link #ALLOCATED},
+ * {@link #FREED}, then the native bytes behind them: {@link #BYTES_ALLOCATED}, {@link #BYTES_FREED} and
+ * {@link #BYTES_LOST}, which is the part of the freed bytes that were freed without being closed. Hand
+ * {@link #buffer()} and {@link #stripes()} to the native side once, before anything is allocated, and pass this to the
+ * {@link LostReferenceCounter} for the same sites.
+ * 
+ * Like the cells of a LongAdder, the whole table is repeated once per stripe, with a spare cache line between stripes,
+ * and native code counts into the stripe of the thread it's on, so threads creating and freeing at the same site don't
+ * all hit the same cache line. Reads add the stripes up, they're just for monitoring and may be a little behind.
+ * 
+ * @author areese
+ * 
+ */
+public final class NativeLeakCounts {
+    public static final int ALLOCATED = 0;
+    public static final int FREED = 1;
+    public static final int BYTES_ALLOCATED = 2;
+    public static final int BYTES_FREED = 3;
+    public static final int BYTES_LOST = 4;
+    public static final int FIELDS = 5;
+
+    static final int MAX_STRIPES = 32;
+    /**
+     * Stripes are a multiple of this many longs, two cache lines, with at least a line of padding at the end, so
+     * neighbouring stripes never share a line however the buffer itself is aligned.
+     */
+    private static final int STRIPE_ALIGN_LONGS = 16;
+    private static final int LINE_LONGS = 8;
+
+    private final ByteBuffer table;
+    private final int sites;
+    private final int stripes;
+    /**
+     * longs from the start of one stripe to the next.
+     */
+    private final int stripeLongs;
+
+    /**
+     * @param sites the number of leak sites, the same as the LostReferenceCounter's max.
+     */
+    public NativeLeakCounts(int sites) {
+        this(sites, defaultStripes());
+    }
+
+    /**
+     * @param sites the number of leak sites, the same as the LostReferenceCounter's max.
+     * @param stripes how many copies of the table threads are spread over, a power of 2.
+     */
+    public NativeLeakCounts(int sites, int stripes) {
+        if (sites < 0) {
+            throw new IllegalArgumentException("sites must not be negative, not " + sites);
+        }
+
+        if (stripes <= 0 || Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("stripes must be a power of 2, not " + stripes);
+        }
+
+        this.sites = sites;
+        this.stripes = stripes;
+        int rowLongs = (sites + 1) * FIELDS;
+        this.stripeLongs = ((rowLongs + LINE_LONGS + STRIPE_ALIGN_LONGS - 1) / STRIPE_ALIGN_LONGS) * STRIPE_ALIGN_LONGS;
+        this.table = ByteBuffer.allocateDirect(stripeLongs * stripes * 8).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @return one stripe per core, as a power of 2, up to {@link #MAX_STRIPES}.
+     */
+    static int defaultStripes() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.min(MAX_STRIPES, Integer.highestOneBit(Math.max(1, cores - 1)) << 1);
+    }
+
+    /**
+     * @return the table for the native side, this has to stay reachable as long as native code can write to it, which
+     *         this object takes care of.
+     */
+    public ByteBuffer buffer() {
+        return table;
+    }
+
+    /**
+     * @return the number of sites, the untracked row is at this index.
+     */
+    public int sites() {
+        return sites;
+    }
+
+    /**
+     * @return how many copies of the table there are, native needs this with {@link #buffer()}.
+     */
+    public int stripes() {
+        return stripes;
+    }
+
+    long get(int site, int field) {
+        int offset = (site * FIELDS) + field;
+        long ret = 0;
+        for (int s = 0; s < stripes; s++) {
+            ret += table.getLong((offset + (s * stripeLongs)) * 8);
+        }
+
+        return ret;
+    }
+
+    long allocated(int site) {
+        return get(site, ALLOCATED);
+    }
+
+    long freed(int site) {
+        return get(site, FREED);
+    }
+
+    long openBytes(int site) {
+        return get(site, BYTES_ALLOCATED) - get(site, BYTES_FREED);
+    }
+
+    long lostBytes(int site) {
+        return get(site, BYTES_LOST);
+    }
+
+    long closedBytes(int site) {
+        return get(site, BYTES_FREED) - get(site, BYTES_LOST);
+    }
+
+    /**
+     * @return the number of live allocations that weren't made with a site's index.
+     */
+    long untrackedOpen() {
+        return allocated(sites) - freed(sites);
+    }
+
+    long untrackedOpenBytes() {
+        return openBytes(sites);
+    }
+
+    /**
+     * @return the number of live allocations across every site and the untracked row.
+     */
+    public long open() {
+        long ret = 0;
+        for (int i = 0; i <= sites; i++) {
+            ret += allocated(i) - freed(i);
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return the native bytes live across every site and the untracked row.
+     */
+    public long openBytes() {
+        long ret = 0;
+        for (int i = 0; i <= sites; i++) {
+            ret += openBytes(i);
+        }
+
+        return ret;
+    }
+}
@@ -0,0 +1,334 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package yjava.jni.cleaner;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+
+/**
+ * Governs allocations against a budget of open native bytes and contexts from a {@link NativeLeakCounts} table, the
+ * way java.nio.Bits.reserveMemory governs direct buffers against MaxDirectMemorySize.
+ * 
+ * Leaked objects only give their native memory back once a GC finds them, and with small Java wrappers the heap can
+ * be nowhere near full while native memory grows by gigabytes. Call {@link #check()} before each allocation. Only 1 in
+ * checkInterval calls adds up the table, every other call goes by what the last one found, so the budget can be
+ * overshot by a little, but once it's over every allocation sees it. When it's over, System.gc() is requested at most
+ * once per gcInterval, on whichever thread saw it, and then the {@link Policy} decides what the allocating thread
+ * does. The GC is synchronous unless the JVM runs with -XX:+ExplicitGCInvokesConcurrent.
+ * 
+ * @author areese
+ * 
+ */
+public final class NativeMemoryBudget implements NativeMemoryBudgetMXBean {
+    private static final long MAX_SLEEP_MS = 64;
+
+    public static enum Policy {
+        /** request a GC and carry on. */
+        NUDGE, //
+        /** request a GC and wait up to maxStall for the Cleaner to get back under budget, then carry on. */
+        STALL, //
+        /** request a GC and throw an OutOfMemoryError instead of allocating. */
+        FAIL;
+    }
+
+    private final String name;
+    private final NativeLeakCounts counts;
+    private final long budget;
+    private final long contextBudget;
+    private final Policy policy;
+    private final int checkInterval;
+    private final long gcIntervalNanos;
+    private final long maxStallNanos;
+    private final AtomicLong lastGc;
+    /**
+     * What the last check that added up the table found.
+     */
+    private volatile boolean over;
+
+    private final LongAdder exceeded = new LongAdder();
+    private final LongAdder gcs = new LongAdder();
+    private final LongAdder stalls = new LongAdder();
+    private final LongAdder stallNanos = new LongAdder();
+    private final LongAdder stallTimeouts = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * @param name name for the mbean.
+     * @param counts the table native code counts into.
+     * @param budget how many native bytes can be open, 0 for no limit.
+     * @param contextBudget how many native allocations can be open, 0 for no limit.
+     * @param policy what to do on the allocating thread when either is over.
+     * @param checkInterval 1 in this many checks looks at the table.
+     * @param gcInterval the least time between GC requests.
+     * @param maxStall the longest {@link Policy#STALL} waits.
+     * @param unit the unit of gcInterval and maxStall.
+     */
+    public NativeMemoryBudget(String name, NativeLeakCounts counts, long budget, long contextBudget, Policy policy,
+                    int checkInterval, long gcInterval, long maxStall, TimeUnit unit) {
+        if (null == name || null == counts || null == policy) {
+            throw new NullPointerException();
+        }
+
+        if (budget <= 0 && contextBudget <= 0) {
+            throw new IllegalArgumentException("budget or contextBudget must be positive, not " + budget + " and "
+                            + contextBudget);
+        }
+
+        this.name = name;
+        this.counts = counts;
+        this.budget = Math.max(0, budget);
+        this.contextBudget = Math.max(0, contextBudget);
+        this.policy = policy;
+        this.checkInterval = Math.max(1, checkInterval);
+        this.gcIntervalNanos = unit.toNanos(gcInterval);
+        this.maxStallNanos = unit.toNanos(Math.max(0, maxStall));
+        // let the first one through.
+        this.lastGc = new AtomicLong(System.nanoTime() - gcIntervalNanos);
+
+        registerMbean();
+    }
+
+    /**
+     * Build one from the yjava.&lt;packageName&gt;.nativeBytes* and nativeBudget* properties.
+     * 
+     * @return null if neither yjava.&lt;packageName&gt;.nativeBytesBudget nor nativeContextBudget is set.
+     */
+    public static NativeMemoryBudget create(String packageName, String name, NativeLeakCounts counts) {
+        if (!isEnabled(packageName) || null == counts) {
+            return null;
+        }
+
+        return new NativeMemoryBudget(name, counts, getBudget(packageName), getContextBudget(packageName),
+                        getPolicy(packageName), getCheckInterval(packageName), getGcIntervalMs(packageName),
+                        getMaxStallMs(packageName), TimeUnit.MILLISECONDS);
+    }
+
+    void registerMbean() {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            ObjectName mbeanName = new ObjectName("yjava.security.ysecure." + name + ":type=NativeMemoryBudget");
+            mbs.registerMBean(this, mbeanName);
+        } catch (MalformedObjectNameException | MBeanRegistrationException | NotCompliantMBeanException e) {
+            // if you have log4j, change this.
+        } catch (InstanceAlreadyExistsException e) {
+            // ignore;
+        }
+    }
+
+    /**
+     * Call this before allocating, if the table is over budget a GC is requested and the policy is applied.
+     * 
+     * @throws OutOfMemoryError if the policy is {@link Policy#FAIL} and it's over budget.
+     */
+    public void check() {
+        if (checkInterval <= 1 || 0 == ThreadLocalRandom.current().nextInt(checkInterval)) {
+            setOver(isOver());
+        }
+
+        if (!over) {
+            return;
+        }
+
+        exceeded.increment();
+        requestGc();
+
+        switch (policy) {
+            case STALL:
+                stall();
+                break;
+
+            case FAIL:
+                failures.increment();
+                throw new OutOfMemoryError("Native memory budget for " + name + " exceeded: " + counts.openBytes()
+                                + " bytes in " + counts.open() + " allocations are open");
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Only write when it changes, so the allocating threads aren't all invalidating the line.
+     */
+    private void setOver(boolean now) {
+        if (now != over) {
+            over = now;
+        }
+    }
+
+    boolean isOver() {
+        if (budget > 0 && counts.openBytes() > budget) {
+            return true;
+        }
+
+        return contextBudget > 0 && counts.open() > contextBudget;
+    }
+
+    /**
+     * @return true if this thread got to call System.gc().
+     */
+    boolean requestGc() {
+        long now = System.nanoTime();
+        long last = lastGc.get();
+        if (now - last < gcIntervalNanos || !lastGc.compareAndSet(last, now)) {
+            // someone else just asked.
+            return false;
+        }
+
+        gcs.increment();
+        System.gc();
+        return true;
+    }
+
+    /**
+     * Wait for the Cleaner to free enough, backing off from 1ms, and asking for another GC if gcInterval has passed.
+     */
+    void stall() {
+        final long start = System.nanoTime();
+        long sleepMs = 1;
+        long waited = 0;
+
+        stalls.increment();
+        try {
+            while (isOver()) {
+                long remaining = maxStallNanos - waited;
+                if (remaining <= 0) {
+                    stallTimeouts.increment();
+                    return;
+                }
+
+                Thread.sleep(Math.max(1, Math.min(sleepMs, TimeUnit.NANOSECONDS.toMillis(remaining))));
+                sleepMs = Math.min(MAX_SLEEP_MS, sleepMs << 1);
+                waited = System.nanoTime() - start;
+                requestGc();
+            }
+
+            // back under, don't make the next allocations wait for a sampled check to find out.
+            setOver(false);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stallNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public long getBudget() {
+        return budget;
+    }
+
+    @Override
+    public long getContextBudget() {
+        return contextBudget;
+    }
+
+    @Override
+    public String getPolicy() {
+        return policy.name();
+    }
+
+    @Override
+    public long getOpenBytes() {
+        return counts.openBytes();
+    }
+
+    @Override
+    public long getOpenContexts() {
+        return counts.open();
+    }
+
+    @Override
+    public long getExceeded() {
+        return exceeded.sum();
+    }
+
+    @Override
+    public long getGcRequests() {
+        return gcs.sum();
+    }
+
+    @Override
+    public long getStalls() {
+        return stalls.sum();
+    }
+
+    @Override
+    public long getStallMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(stallNanos.sum());
+    }
+
+    @Override
+    public long getStallTimeouts() {
+        return stallTimeouts.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public int getCheckInterval() {
+        return checkInterval;
+    }
+
+    @Override
+    public long getGcIntervalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(gcIntervalNanos);
+    }
+
+    @Override
+    public long getMaxStallMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxStallNanos);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public static boolean isEnabled(String packageName) {
+        return getBudget(packageName) > 0 || getContextBudget(packageName) > 0;
+    }
+
+    public static long getBudget(String packageName) {
+        String v = LostReferenceCounter.getProperty(packageName, ".nativeBytesBudget", "0");
+        return Long.parseLong(v);
+    }
+
+    public static long getContextBudget(String packageName) {
+        String v = LostReferenceCounter.getProperty(packageName, ".nativeContextBudget", "0");
+        return Long.parseLong(v);
+    }
+
+    public static Policy getPolicy(String packageName) {
+        String v = LostReferenceCounter.getProperty(packageName, ".nativeBudgetPolicy", "nudge");
+        return Policy.valueOf(v.trim().toUpperCase());
+    }
+
+    public static int getCheckInterval(String packageName) {
+        String v = LostReferenceCounter.getProperty(packageName, ".nativeBytesCheckInterval", "64");
+        return Integer.parseInt(v);
+    }
+
+    public static long getGcIntervalMs(String packageName) {
+        String v = LostReferenceCounter.getProperty(packageName, ".nativeBytesGcIntervalMs", "100");
+        return Long.parseLong(v);
+    }
+
+    public static long getMaxStallMs(String packageName) {
+        String v = LostReferenceCounter.getProperty(packageName, ".nativeBudgetMaxStallMs", "500");
+        return Long.parseLong(v);
+    }
+}
@@ -0,0 +1,84 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package yjava.jni.cleaner;
+
+import javax.management.MXBean;
+
+
+@MXBean
+public interface NativeMemoryBudgetMXBean {
+    /**
+     * @return the native bytes that can be open before the policy kicks in, 0 for no limit
+     */
+    long getBudget();
+
+    /**
+     * @return the native allocations that can be open before the policy kicks in, 0 for no limit
+     */
+    long getContextBudget();
+
+    /**
+     * @return NUDGE, STALL or FAIL
+     */
+    String getPolicy();
+
+    /**
+     * @return the native bytes open right now
+     */
+    long getOpenBytes();
+
+    /**
+     * @return the native allocations open right now
+     */
+    long getOpenContexts();
+
+    /**
+     * @return the number of checks that found it over budget
+     */
+    long getExceeded();
+
+    /**
+     * @return the number of times System.gc() was called
+     */
+    long getGcRequests();
+
+    /**
+     * @return the number of allocations that were stalled
+     */
+    long getStalls();
+
+    /**
+     * @return the total time allocations were stalled in milliseconds
+     */
+    long getStallMillis();
+
+    /**
+     * @return the number of stalls that gave up before it was back under budget
+     */
+    long getStallTimeouts();
+
+    /**
+     * @return the number of allocations that were refused
+     */
+    long getFailures();
+
+    /**
+     * @return 1 in this many checks adds up the open bytes
+     */
+    int getCheckInterval();
+
+    /**
+     * @return the least time between GC requests in milliseconds
+     */
+    long getGcIntervalMillis();
+
+    /**
+     * @return the longest a stall waits in milliseconds
+     */
+    long getMaxStallMillis();
+
+    /**
+     * @return name of this budget
+     */
+    String getName();
+}
@@ -0,0 +1,223 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package yjava.jni.cleaner;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+
+/**
+ * Frees leaked pointers on its own daemon threads, so the Cleaner never blocks on a native free.
+ * 
+ * The Cleaner runs on the JVM's Reference Handler thread, and if the native free takes a lock everything waiting on
+ * reference processing waits with it. With a reaper the Cleaner only puts the address on a lock free
+ * {@link AddressQueue}, and the reaper threads free them in batches. If the queue is full the Cleaner frees it itself,
+ * so nothing is ever dropped.
+ * 
+ * @author areese
+ * 
+ */
+public class NativeReaper implements NativeReaperMXBean {
+    static final int BATCH = 256;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final String name;
+    private final AbstractDeallocator deallocator;
+    private final AddressQueue queue;
+    private final Thread[] threads;
+    private final AtomicInteger idle = new AtomicInteger();
+
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder drained = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final AtomicLong maxDepth = new AtomicLong();
+
+    NativeReaper(String name, AbstractDeallocator deallocator, int threadCount, int queueSize) {
+        this.name = name;
+        this.deallocator = deallocator;
+        this.queue = new AddressQueue(queueSize);
+        this.threads = new Thread[threadCount];
+
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(this::reap, "NativeReaper-" + name + "-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+
+        registerMbean();
+    }
+
+    void registerMbean() {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            ObjectName mbeanName = new ObjectName("yjava.security.ysecure." + name + ":type=NativeReaper");
+            mbs.registerMBean(this, mbeanName);
+        } catch (MalformedObjectNameException | MBeanRegistrationException | NotCompliantMBeanException e) {
+            // if you have log4j, change this.
+        } catch (InstanceAlreadyExistsException e) {
+            // ignore;
+        }
+    }
+
+    /**
+     * Queue a leaked pointer to be freed.
+     * 
+     * @return false if the queue is full and the caller has to free it.
+     */
+    boolean offer(long address) {
+        if (!queue.offer(address, System.nanoTime())) {
+            overflows.increment();
+            return false;
+        }
+
+        enqueued.increment();
+
+        long depth = queue.size();
+        long max = maxDepth.get();
+        while (depth > max && !maxDepth.compareAndSet(max, depth)) {
+            max = maxDepth.get();
+        }
+
+        if (idle.get() > 0) {
+            LockSupport.unpark(threads[(int) (depth % threads.length)]);
+        }
+
+        return true;
+    }
+
+    void reap() {
+        final long[] batch = new long[BATCH];
+        final long[] queuedAt = new long[BATCH];
+        final int[] leakIndexes = new int[BATCH];
+
+        while (true) {
+            int n = queue.drain(batch, queuedAt, BATCH);
+            if (0 == n) {
+                idle.incrementAndGet();
+                try {
+                    // check again now we're marked idle, or an offer could miss us.
+                    if (0 == queue.size()) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                } finally {
+                    idle.decrementAndGet();
+                }
+                continue;
+            }
+
+            try {
+                // one native call for the whole batch.
+                deallocator.reapAll(batch, n, leakIndexes);
+            } catch (Throwable t) {
+                // keep the reaper alive, there's nobody to throw to.
+                // if you have log4j, change this.
+            }
+
+            record(queuedAt, n);
+        }
+    }
+
+    void record(long[] queuedAt, int n) {
+        long now = System.nanoTime();
+        long worst = 0;
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            long latency = now - queuedAt[i];
+            total += latency;
+            worst = Math.max(worst, latency);
+        }
+
+        drained.add(n);
+        batches.increment();
+        latencyNanos.add(total);
+
+        long max = maxLatencyNanos.get();
+        while (worst > max && !maxLatencyNanos.compareAndSet(max, worst)) {
+            max = maxLatencyNanos.get();
+        }
+    }
+
+    @Override
+    public long getQueueDepth() {
+        return queue.size();
+    }
+
+    @Override
+    public long getMaxQueueDepth() {
+        return maxDepth.get();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return queue.capacity();
+    }
+
+    @Override
+    public long getEnqueued() {
+        return enqueued.sum();
+    }
+
+    @Override
+    public long getDrained() {
+        return drained.sum();
+    }
+
+    @Override
+    public long getOverflows() {
+        return overflows.sum();
+    }
+
+    @Override
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    @Override
+    public long getAverageDrainLatencyMicros() {
+        long count = drained.sum();
+        if (0 == count) {
+            return 0;
+        }
+
+        return TimeUnit.NANOSECONDS.toMicros(latencyNanos.sum() / count);
+    }
+
+    @Override
+    public long getMaxDrainLatencyMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxLatencyNanos.get());
+    }
+
+    @Override
+    public int getThreads() {
+        return threads.length;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public static int getThreads(String packageName) {
+        String v = LostReferenceCounter.getProperty(packageName, ".reaperThreads", "0");
+        return Integer.parseInt(v);
+    }
+
+    public static int getQueueSize(String packageName) {
+        String v = LostReferenceCounter.getProperty(packageName, ".reaperQueueSize", "65536");
+        return Integer.parseInt(v);
+    }
+}
@@ -0,0 +1,64 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package yjava.jni.cleaner;
+
+import javax.management.MXBean;
+
+
+@MXBean
+public interface NativeReaperMXBean {
+    /**
+     * @return the number of pointers waiting to be freed
+     */
+    long getQueueDepth();
+
+    /**
+     * @return the most pointers that have been waiting at once
+     */
+    long getMaxQueueDepth();
+
+    /**
+     * @return the number of pointers the queue can hold
+     */
+    int getQueueCapacity();
+
+    /**
+     * @return the number of pointers handed to the reaper
+     */
+    long getEnqueued();
+
+    /**
+     * @return the number of pointers the reaper has freed
+     */
+    long getDrained();
+
+    /**
+     * @return the number of pointers freed on the Cleaner's thread because the queue was full
+     */
+    long getOverflows();
+
+    /**
+     * @return the number of batches drained
+     */
+    long getBatches();
+
+    /**
+     * @return the average time from queued to freed in microseconds
+     */
+    long getAverageDrainLatencyMicros();
+
+    /**
+     * @return the longest time from queued to freed in microseconds
+     */
+    long getMaxDrainLatencyMicros();
+
+    /**
+     * @return the number of reaper threads
+     */
+    int getThreads();
+
+    /**
+     * @return name of this reaper
+     */
+    String getName();
+}
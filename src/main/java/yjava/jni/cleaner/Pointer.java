@@ -2,13 +2,18 @@
 /* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
 package yjava.jni.cleaner;
 
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 public class Pointer implements PointerAccess {
+    private static final AtomicLongFieldUpdater<Pointer> POINTER = AtomicLongFieldUpdater.newUpdater(Pointer.class,
+                    "pointer");
+
     @Override
     public String toString() {
         return "Pointer [pointer=" + Long.toHexString(pointer) + "]";
     }
 
-    public long pointer;
+    public volatile long pointer;
 
     public Pointer(long pointer) {
         this.pointer = pointer;
@@ -22,6 +27,19 @@ public class Pointer implements PointerAccess {
         this.pointer = p;
     }
 
+    /**
+     * Take ownership of the C pointer, whoever gets a non-zero value back is the one that frees it.
+     * 
+     * @return the C pointer, or 0 if someone else already took it.
+     */
+    public long take() {
+        if (0 == pointer) {
+            return 0;
+        }
+
+        return POINTER.getAndSet(this, 0);
+    }
+
     @Override
     public int getLeakIndex() {
         throw new IllegalAccessError();
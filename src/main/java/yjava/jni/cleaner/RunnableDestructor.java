@@ -14,13 +14,21 @@ class RunnableDestructor implements Runnable {
 
     @Override
     public void run() {
-        if (null == this.destructor || null == this.pointer || 0 == this.pointer.pointer) {
+        // close() can be clearing these at the same time, so only read them once.
+        final Pointer p = this.pointer;
+        final AbstractDeallocator d = this.destructor;
+        if (null == d || null == p) {
+            return;
+        }
+
+        // close() and the Cleaner race for the pointer, only the one that takes it frees it.
+        long address = p.take();
+        if (0 == address) {
             return;
         }
 
         // System.err.println("Finalizer run: " + swigCPtr + " " + swigCMemOwn);
-        this.destructor.delete(this.pointer);
-        this.pointer.pointer = 0;
+        d.delete(address);
         this.pointer = null;
     }
 }
@@ -0,0 +1,124 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package yjava.jni.cleaner;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A snapshot of one allocation site from a {@link LostReferenceCounter}, over JMX it's a CompositeData.
+ * 
+ * The counts are read one after another without a lock, so they can be off by whatever happened while they were read.
+ * When the counter samples stacks, the counts and the bytes are both the sampled ones, not estimates, multiply them by
+ * {@link #getSampleRate()} for an estimate. If the site took over the index of an evicted one, the counts include the
+ * evicted site's, see {@link #getInherited()}.
+ * 
+ * @author areese
+ * 
+ */
+public final class SiteCounts {
+    private final int index;
+    private final int generation;
+    private final long inherited;
+    private final long open;
+    private final long closed;
+    private final long lost;
+    private final long openBytes;
+    private final long closedBytes;
+    private final long lostBytes;
+    private final int sampleRate;
+    private final String[] frames;
+
+    @ConstructorProperties({"index", "generation", "inherited", "open", "closed", "lost", "openBytes", "closedBytes",
+                    "lostBytes", "sampleRate", "frames"})
+    public SiteCounts(int index, int generation, long inherited, long open, long closed, long lost, long openBytes,
+                    long closedBytes, long lostBytes, int sampleRate, String[] frames) {
+        this.index = index;
+        this.generation = generation;
+        this.inherited = inherited;
+        this.open = open;
+        this.closed = closed;
+        this.lost = lost;
+        this.openBytes = openBytes;
+        this.closedBytes = closedBytes;
+        this.lostBytes = lostBytes;
+        this.sampleRate = sampleRate;
+        this.frames = (null == frames) ? new String[0] : frames.clone();
+    }
+
+    /**
+     * @return the site's leak index, it only belongs to this site while the generation stays the same.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return how many times the index has been taken over by a new site.
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return the opens already counted at the index when this site took it over, the most its counts are over by.
+     */
+    public long getInherited() {
+        return inherited;
+    }
+
+    public long getOpen() {
+        return open;
+    }
+
+    public long getClosed() {
+        return closed;
+    }
+
+    public long getLost() {
+        return lost;
+    }
+
+    /**
+     * @return the native bytes held by open references, or -1 if native code isn't counting, unscaled like the counts.
+     */
+    public long getOpenBytes() {
+        return openBytes;
+    }
+
+    /**
+     * @return the native bytes freed by close, or -1 if native code isn't counting, unscaled like the counts.
+     */
+    public long getClosedBytes() {
+        return closedBytes;
+    }
+
+    /**
+     * @return the native bytes freed without being closed, or -1 if native code isn't counting, unscaled like the
+     *         counts.
+     */
+    public long getLostBytes() {
+        return lostBytes;
+    }
+
+    /**
+     * @return 1 in how many opens at this site were counted, 1 if they all were.
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @return the innermost frames of the stack that opened them, empty for opens without a stack.
+     */
+    public String[] getFrames() {
+        return frames.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "SiteCounts [index=" + index + ", generation=" + generation + ", inherited=" + inherited + ", open="
+                        + open + ", closed=" + closed + ", lost=" + lost + ", openBytes=" + openBytes + ", closedBytes="
+                        + closedBytes + ", lostBytes=" + lostBytes + ", sampleRate=" + sampleRate + ", frames="
+                        + frames.length + "]";
+    }
+}
@@ -0,0 +1,62 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package yjava.jni.cleaner;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * The Java 8 backend, sun.misc.Cleaner, which runs every destructor on the JVM's Reference Handler thread.
+ * 
+ * sun.misc.Cleaner is found with a MethodHandle so this compiles with --release 8, which hides sun.misc, and so the
+ * class still loads on JVMs that don't have it.
+ * 
+ * @author areese
+ * 
+ */
+final class SunMiscCleanerBackend implements CleanerBackend {
+    private static final MethodHandle CREATE = findCreate();
+
+    private static MethodHandle findCreate() {
+        try {
+            Class<?> cleanerClass = Class.forName("sun.misc.Cleaner");
+            return MethodHandles.publicLookup()
+                            .findStatic(cleanerClass, "create",
+                                            MethodType.methodType(cleanerClass, Object.class, Runnable.class))
+                            .asType(MethodType.methodType(Object.class, Object.class, Runnable.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if this JVM has sun.misc.Cleaner.
+     */
+    static boolean isAvailable() {
+        return null != CREATE;
+    }
+
+    SunMiscCleanerBackend() {
+        if (null == CREATE) {
+            throw new UnsupportedOperationException(
+                            "sun.misc.Cleaner isn't available, use the multi-release jar on Java 9 and later");
+        }
+    }
+
+    @Override
+    public Object register(Object obj, Runnable action) {
+        try {
+            return (Object) CREATE.invokeExact(obj, action);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    @Override
+    public String name() {
+        return "sun.misc.Cleaner";
+    }
+}
@@ -0,0 +1,135 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package yjava.jni.cleaner;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder events for the create, close, leak and double close of {@link DeallocatingAddressBase} objects.
+ *
+ * This is the Java 11 version from the multi-release jar. Create, close and leak are off unless a recording turns them
+ * on, and only 1 in -Dyjava.jni.eventSampleRate of them are recorded, it defaults to 1. The rate isn't a per recording
+ * setting, a SettingControl can't be built with --release 11 as ct.sym doesn't have the internal class it extends.
+ *
+ * Objects only get close and leak events if one of the three was on when they were created,
+ * as that's when the create time and size are taken. Double close is on by default, with a stack trace, as it's
+ * always a bug and never hot.
+ *
+ * @author areese
+ *
+ */
+final class LifecycleEvents {
+    private LifecycleEvents() {
+    }
+
+    static final int SAMPLE_RATE = Math.max(1, Integer.getInteger("yjava.jni.eventSampleRate", 1));
+
+    @Category({"yjava", "JNI"})
+    @Enabled(false)
+    @StackTrace(false)
+    abstract static class SampledEvent extends Event {
+        @Label("Type")
+        Class<?> type;
+
+        @Label("Leak Index")
+        int leakIndex;
+
+        @Label("Native Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("yjava.jni.Create")
+    @Label("Native Create")
+    @Description("A native object was created")
+    static final class CreateEvent extends SampledEvent {
+    }
+
+    @Name("yjava.jni.Close")
+    @Label("Native Close")
+    @Description("A native object was freed by close")
+    static final class CloseEvent extends SampledEvent {
+        @Label("Lifetime")
+        @Description("From create to free")
+        @Timespan
+        long lifetime;
+    }
+
+    @Name("yjava.jni.Leak")
+    @Label("Native Leak Reclaimed")
+    @Description("A native object was never closed, and the Cleaner is freeing it")
+    static final class LeakEvent extends SampledEvent {
+        @Label("Lifetime")
+        @Description("From create to the Cleaner finding it")
+        @Timespan
+        long lifetime;
+    }
+
+    @Name("yjava.jni.DoubleClose")
+    @Label("Double Close")
+    @Description("close() was called on something already closed")
+    @Category({"yjava", "JNI"})
+    @StackTrace(true)
+    static final class DoubleCloseEvent extends Event {
+        @Label("Type")
+        Class<?> type;
+    }
+
+    static boolean sample() {
+        return 1 == SAMPLE_RATE || 0 == ThreadLocalRandom.current().nextInt(SAMPLE_RATE);
+    }
+
+    static boolean isTracing() {
+        return new CreateEvent().isEnabled() || new CloseEvent().isEnabled() || new LeakEvent().isEnabled();
+    }
+
+    static void created(Class<?> type, int leakIndex, long bytes) {
+        CreateEvent e = new CreateEvent();
+        if (e.isEnabled() && sample()) {
+            e.type = type;
+            e.leakIndex = leakIndex;
+            e.bytes = bytes;
+            e.commit();
+        }
+    }
+
+    static void closed(Class<?> type, int leakIndex, long bytes, long lifetimeNanos) {
+        CloseEvent e = new CloseEvent();
+        if (e.isEnabled() && sample()) {
+            e.type = type;
+            e.leakIndex = leakIndex;
+            e.bytes = bytes;
+            e.lifetime = lifetimeNanos;
+            e.commit();
+        }
+    }
+
+    static void leaked(Class<?> type, int leakIndex, long bytes, long lifetimeNanos) {
+        LeakEvent e = new LeakEvent();
+        if (e.isEnabled() && sample()) {
+            e.type = type;
+            e.leakIndex = leakIndex;
+            e.bytes = bytes;
+            e.lifetime = lifetimeNanos;
+            e.commit();
+        }
+    }
+
+    static void doubleClosed(Class<?> type) {
+        DoubleCloseEvent e = new DoubleCloseEvent();
+        if (e.isEnabled()) {
+            e.type = type;
+            e.commit();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package yjava.jni.cleaner;
+
+/**
+ * Picks the {@link CleanerBackend} for this JVM.
+ * 
+ * This is the Java 9 version from the multi-release jar, which uses {@link ShardedCleanerBackend}. Setting
+ * yjava.jni.cleaner.cleanerBackend=sun goes back to sun.misc.Cleaner, on the JVMs that still have it.
+ * 
+ * @author areese
+ * 
+ */
+public final class CleanerBackends {
+    private static final CleanerBackend BACKEND = create();
+
+    private CleanerBackends() {
+    }
+
+    private static CleanerBackend create() {
+        String backend = LostReferenceCounter.getProperty("jni.cleaner", ".cleanerBackend", "java");
+        if ("sun".equals(backend) && SunMiscCleanerBackend.isAvailable()) {
+            return new SunMiscCleanerBackend();
+        }
+
+        int cleaners = Integer.parseInt(LostReferenceCounter.getProperty("jni.cleaner", ".cleaners",
+                        Integer.toString(ShardedCleanerBackend.DEFAULT_CLEANERS)));
+        return new ShardedCleanerBackend(cleaners);
+    }
+
+    /**
+     * @return the backend every DeallocatingClosedBase and DeallocatingAddressBase registers with.
+     */
+    public static CleanerBackend get() {
+        return BACKEND;
+    }
+}
@@ -0,0 +1,47 @@
+/* Copyright 2016 Yahoo Inc. */
+/* Licensed under the terms of the 3-Clause BSD license. See LICENSE file in the project root for details. */
+package yjava.jni.cleaner;
+
+import java.lang.ref.Cleaner;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The Java 9 backend, several java.lang.ref.Cleaner's each with their own daemon thread.
+ * 
+ * Each registration goes to a random Cleaner, so leaked objects are cleaned up on as many threads as there are
+ * Cleaner's instead of all of them going through the Reference Handler thread.
+ * 
+ * @author areese
+ * 
+ */
+final class ShardedCleanerBackend implements CleanerBackend {
+    static final int DEFAULT_CLEANERS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    private final Cleaner[] cleaners;
+
+    ShardedCleanerBackend(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("count must be at least 1, not " + count);
+        }
+
+        final AtomicInteger threadNumber = new AtomicInteger();
+        this.cleaners = new Cleaner[count];
+        for (int i = 0; i < count; i++) {
+            // Cleaner makes its thread a daemon.
+            cleaners[i] = Cleaner.create(r -> new Thread(r, "JniCleaner-" + threadNumber.getAndIncrement()));
+        }
+    }
+
+    @Override
+    public Object register(Object obj, Runnable action) {
+        Cleaner cleaner = (1 == cleaners.length) ? cleaners[0]
+                        : cleaners[ThreadLocalRandom.current().nextInt(cleaners.length)];
+        return cleaner.register(obj, action);
+    }
+
+    @Override
+    public String name() {
+        return "java.lang.ref.Cleaner x " + cleaners.length;
+    }
+}